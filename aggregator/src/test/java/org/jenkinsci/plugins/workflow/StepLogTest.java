@@ -0,0 +1,88 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.workflow;
+
+import hudson.model.queue.QueueTaskFuture;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowExecution;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.workflow.test.steps.SemaphoreStep;
+import org.junit.Rule;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.jvnet.hudson.test.JenkinsRule;
+
+/**
+ * Checks how step logs are released.
+ */
+public class StepLogTest {
+
+    @Rule public JenkinsRule r = new JenkinsRule();
+
+    @Test public void blockStepListenersRemoved() throws Exception {
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition(
+                "dir('a') {echo 'once'}\n" +
+                "semaphore 'once'\n" +
+                "for (int i = 0; i < 10; i++) {\n" +
+                "  dir(\"d${i}\") {echo \"in ${i}\"}\n" +
+                "}\n" +
+                "semaphore 'loop'"));
+        QueueTaskFuture<WorkflowRun> f = p.scheduleBuild2(0);
+        WorkflowRun b = f.waitForStart();
+        CpsFlowExecution e = (CpsFlowExecution) b.getExecutionPromise().get();
+        SemaphoreStep.waitForStart("once/1", b);
+        int afterOne = e.getActiveListenerCount();
+        SemaphoreStep.success("once/1", null);
+        SemaphoreStep.waitForStart("loop/1", b);
+        // each dir step closed its log and removed its listener once its body started, so none pile up
+        assertEquals(afterOne, e.getActiveListenerCount());
+        SemaphoreStep.success("loop/1", null);
+        r.assertBuildStatusSuccess(f);
+        r.assertLogContains("in 9", b);
+    }
+
+    @Test public void allOutputCopied() throws Exception {
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+        // more branches than are copied at once while the build runs
+        p.setDefinition(new CpsFlowDefinition(
+                "def branches = [:]\n" +
+                "for (int i = 0; i < 150; i++) {\n" +
+                "  def n = i\n" +
+                "  branches[\"b${n}\"] = {echo \"from ${n}\"}\n" +
+                "}\n" +
+                "parallel branches\n" +
+                "echo 'first'\n" +
+                "echo 'second'"));
+        WorkflowRun b = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        for (int i = 0; i < 150; i++) {
+            r.assertLogContains("from " + i, b);
+        }
+        String log = JenkinsRule.getLog(b);
+        assertTrue(log, log.indexOf("first") < log.indexOf("second"));
+    }
+
+}
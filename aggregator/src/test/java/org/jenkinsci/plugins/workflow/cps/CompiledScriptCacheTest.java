@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.workflow.cps;
+
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.workflow.test.steps.SemaphoreStep;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runners.model.Statement;
+import static org.junit.Assert.*;
+import org.jvnet.hudson.test.RestartableJenkinsRule;
+
+public class CompiledScriptCacheTest {
+
+    @Rule public RestartableJenkinsRule story = new RestartableJenkinsRule();
+
+    /** Script defining a class, whose instances the main script keeps. */
+    private static final String LIB = "class Holder implements Serializable {String text; Holder(String text) {this.text = text}}\\ndef make(t) {new Holder(t)}\\nreturn this";
+
+    private long hits;
+
+    @Before public void enable() {
+        CompiledScriptCache.ENABLED = true;
+    }
+
+    @After public void disable() {
+        CompiledScriptCache.ENABLED = false;
+    }
+
+    @Test public void secondBuildHits() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "p");
+                p.setDefinition(new CpsFlowDefinition("echo 'first of its kind'"));
+                long misses = CompiledScriptCache.getMissCount();
+                story.j.assertBuildStatusSuccess(p.scheduleBuild2(0));
+                assertEquals(misses + 1, CompiledScriptCache.getMissCount());
+                long hits = CompiledScriptCache.getHitCount();
+                WorkflowRun b = story.j.assertBuildStatusSuccess(p.scheduleBuild2(0));
+                story.j.assertLogContains("first of its kind", b);
+                assertEquals(hits + 1, CompiledScriptCache.getHitCount());
+                assertEquals(misses + 1, CompiledScriptCache.getMissCount());
+            }
+        });
+    }
+
+    @Test public void sandboxNotShared() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "p");
+                String script = "echo 'sandboxed or not'";
+                p.setDefinition(new CpsFlowDefinition(script, false));
+                story.j.assertBuildStatusSuccess(p.scheduleBuild2(0));
+                long hits = CompiledScriptCache.getHitCount();
+                long misses = CompiledScriptCache.getMissCount();
+                // same text, but compiled with the sandbox transformer, so it must not come from the entry above
+                p.setDefinition(new CpsFlowDefinition(script, true));
+                story.j.assertLogContains("sandboxed or not", story.j.assertBuildStatusSuccess(p.scheduleBuild2(0)));
+                assertEquals(hits, CompiledScriptCache.getHitCount());
+                assertEquals(misses + 1, CompiledScriptCache.getMissCount());
+            }
+        });
+    }
+
+    @Test public void loadedClassesAcrossRestart() {
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "p");
+                p.setDefinition(new CpsFlowDefinition(
+                        "def h\n" +
+                        "node {\n" +
+                        "  writeFile file: 'lib.groovy', text: '" + LIB + "'\n" +
+                        "  h = load('lib.groovy').make('kept')\n" +
+                        "}\n" +
+                        "echo \"made ${h.text}\"\n" +
+                        "semaphore 'cached'\n" +
+                        "echo \"still ${h.text}\""));
+                // compile both scripts once, so that the build below and its resumption can use the cache
+                SemaphoreStep.success("cached/1", null);
+                story.j.assertLogContains("still kept", story.j.assertBuildStatusSuccess(p.scheduleBuild2(0)));
+                WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+                SemaphoreStep.waitForStart("cached/2", b);
+                story.j.assertLogContains("made kept", b);
+                hits = CompiledScriptCache.getHitCount();
+            }
+        });
+        story.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                WorkflowJob p = story.j.jenkins.getItemByFullName("p", WorkflowJob.class);
+                WorkflowRun b = p.getBuildByNumber(2);
+                SemaphoreStep.success("cached/2", null);
+                while (b.isBuilding()) {
+                    Thread.sleep(100);
+                }
+                // program.dat refers to Holder, defined by the loaded script, and both scripts came from the cache
+                story.j.assertBuildStatusSuccess(b);
+                story.j.assertLogContains("still kept", b);
+                assertTrue(CompiledScriptCache.getHitCount() >= hits + 2);
+            }
+        });
+    }
+
+}
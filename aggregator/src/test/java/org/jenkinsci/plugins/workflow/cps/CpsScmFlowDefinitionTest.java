@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.workflow.cps;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.scm.ChangeLogParser;
+import hudson.scm.NullChangeLogParser;
+import hudson.scm.PollingResult;
+import hudson.scm.SCM;
+import hudson.scm.SCMDescriptor;
+import hudson.scm.SCMRevisionState;
+import java.io.File;
+import java.io.IOException;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+
+public class CpsScmFlowDefinitionTest {
+
+    @Rule public JenkinsRule r = new JenkinsRule();
+
+    @Before public void reuse() {
+        CpsScmFlowDefinition.REUSE_UNCHANGED = true;
+        RevisionSCM.revision = 1;
+        RevisionSCM.checkouts = 0;
+    }
+
+    @After public void noReuse() {
+        CpsScmFlowDefinition.REUSE_UNCHANGED = false;
+    }
+
+    @Test public void reuseUnchanged() throws Exception {
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsScmFlowDefinition(new RevisionSCM(), "flow.groovy"));
+        WorkflowRun b = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        r.assertLogContains("at revision 1", b);
+        assertEquals(1, RevisionSCM.checkouts);
+        assertEquals(1, CpsScmFlowDefinition.getCachedScriptCount());
+
+        b = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        r.assertLogContains("No changes since", b);
+        r.assertLogContains("at revision 1", b);
+        assertEquals(1, RevisionSCM.checkouts);
+
+        RevisionSCM.revision = 2;
+        b = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        r.assertLogNotContains("No changes since", b);
+        r.assertLogContains("at revision 2", b);
+        assertEquals(2, RevisionSCM.checkouts);
+
+        // and the next build may reuse the new revision
+        b = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        r.assertLogContains("No changes since", b);
+        r.assertLogContains("at revision 2", b);
+        assertEquals(2, RevisionSCM.checkouts);
+    }
+
+    @Test public void forgottenWithJob() throws Exception {
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsScmFlowDefinition(new RevisionSCM(), "flow.groovy"));
+        r.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        assertEquals(1, CpsScmFlowDefinition.getCachedScriptCount());
+        p.renameTo("q");
+        assertEquals(0, CpsScmFlowDefinition.getCachedScriptCount());
+        r.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        assertEquals(1, CpsScmFlowDefinition.getCachedScriptCount());
+        p.delete();
+        assertEquals(0, CpsScmFlowDefinition.getCachedScriptCount());
+    }
+
+    /**
+     * Checks out a flow script naming a revision which tests may change.
+     */
+    public static final class RevisionSCM extends SCM {
+
+        static volatile int revision;
+        static volatile int checkouts;
+
+        @Override public void checkout(Run<?,?> build, Launcher launcher, FilePath workspace, TaskListener listener, File changelogFile, SCMRevisionState baseline) throws IOException, InterruptedException {
+            checkouts++;
+            workspace.child("flow.groovy").write("echo 'at revision " + revision + "'", "UTF-8");
+        }
+
+        @Override public SCMRevisionState calcRevisionsFromBuild(Run<?,?> build, FilePath workspace, Launcher launcher, TaskListener listener) throws IOException, InterruptedException {
+            return new State(revision);
+        }
+
+        @Override public PollingResult compareRemoteRevisionWith(Job<?,?> project, Launcher launcher, FilePath workspace, TaskListener listener, SCMRevisionState baseline) throws IOException, InterruptedException {
+            State current = new State(revision);
+            return new PollingResult(baseline, current, ((State) baseline).revision == current.revision ? PollingResult.Change.NONE : PollingResult.Change.SIGNIFICANT);
+        }
+
+        @Override public boolean requiresWorkspaceForPolling() {
+            return false;
+        }
+
+        @Override public ChangeLogParser createChangeLogParser() {
+            return new NullChangeLogParser();
+        }
+
+        private static final class State extends SCMRevisionState {
+            final int revision;
+            State(int revision) {
+                this.revision = revision;
+            }
+        }
+
+        @TestExtension public static final class DescriptorImpl extends SCMDescriptor<RevisionSCM> {
+            public DescriptorImpl() {
+                super(null);
+            }
+            @Override public String getDisplayName() {
+                return "Revision";
+            }
+        }
+
+    }
+
+}
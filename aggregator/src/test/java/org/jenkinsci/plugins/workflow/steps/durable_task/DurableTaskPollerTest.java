@@ -0,0 +1,78 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.workflow.steps.durable_task;
+
+import hudson.Functions;
+import hudson.model.Result;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class DurableTaskPollerTest {
+
+    @Rule public JenkinsRule r = new JenkinsRule();
+
+    @Before public void batch() {
+        Assume.assumeFalse(Functions.isWindows());
+        DurableTaskStep.BATCH = true;
+    }
+
+    @After public void noBatch() {
+        DurableTaskStep.BATCH = false;
+    }
+
+    @Test public void tasksOnOneAgent() throws Exception {
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition(
+                "node {\n" +
+                "  parallel a: {\n" +
+                "    sh 'echo a started; sleep 3; echo a done'\n" +
+                "  }, b: {\n" +
+                "    sh 'echo b started; sleep 1; echo b done; exit 3'\n" +
+                "  }\n" +
+                "}"));
+        WorkflowRun b = r.assertBuildStatus(Result.FAILURE, p.scheduleBuild2(0).get());
+        r.assertLogContains("a started", b);
+        r.assertLogContains("a done", b);
+        r.assertLogContains("b done", b);
+        r.assertLogContains("script returned exit code 3", b);
+        // with no tasks left, the poller stops ticking
+        for (int i = 0; i < 50 && DurableTaskPoller.isPolling(); i++) {
+            Thread.sleep(100);
+        }
+        assertFalse(DurableTaskPoller.isPolling());
+
+        p.setDefinition(new CpsFlowDefinition("node {sh 'echo again'}"));
+        r.assertLogContains("again", r.assertBuildStatusSuccess(p.scheduleBuild2(0)));
+    }
+
+}
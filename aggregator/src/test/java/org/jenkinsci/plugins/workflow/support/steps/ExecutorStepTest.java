@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.workflow.support.steps;
+
+import hudson.model.Computer;
+import hudson.model.Queue;
+import hudson.model.Result;
+import hudson.model.queue.QueueTaskFuture;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.workflow.test.steps.SemaphoreStep;
+import org.junit.Rule;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class ExecutorStepTest {
+
+    @Rule public JenkinsRule r = new JenkinsRule();
+
+    @Test public void stopQueued() throws Exception {
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("node('nowhere') {echo 'never'}"));
+        QueueTaskFuture<WorkflowRun> f = p.scheduleBuild2(0);
+        WorkflowRun b = f.waitForStart();
+        while (Queue.getInstance().getItems().length == 0) {
+            Thread.sleep(100);
+        }
+        b.getExecutionPromise().get().interrupt(Result.ABORTED);
+        r.assertBuildStatus(Result.ABORTED, f.get());
+        r.assertLogNotContains("never", b);
+        assertEquals(0, Queue.getInstance().getItems().length);
+    }
+
+    @Test public void stopRunning() throws Exception {
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("node {semaphore 'stopRunning'}"));
+        QueueTaskFuture<WorkflowRun> f = p.scheduleBuild2(0);
+        WorkflowRun b = f.waitForStart();
+        SemaphoreStep.waitForStart("stopRunning/1", b);
+        Computer c = r.jenkins.toComputer();
+        assertEquals(1, c.countBusy());
+        b.getExecutionPromise().get().interrupt(Result.ABORTED);
+        r.assertBuildStatus(Result.ABORTED, f.get());
+        // the executor was released rather than left waiting
+        waitForBusy(c, 0);
+    }
+
+    @Test public void concurrentBlocks() throws Exception {
+        r.jenkins.setNumExecutors(2);
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("parallel a: {node {semaphore 'concurrentA'}}, b: {node {semaphore 'concurrentB'}}"));
+        QueueTaskFuture<WorkflowRun> f = p.scheduleBuild2(0);
+        WorkflowRun b = f.waitForStart();
+        SemaphoreStep.waitForStart("concurrentA/1", b);
+        SemaphoreStep.waitForStart("concurrentB/1", b);
+        Computer c = r.jenkins.toComputer();
+        assertEquals(2, c.countBusy());
+        SemaphoreStep.success("concurrentA/1", null);
+        waitForBusy(c, 1);
+        // finishing one block must not release the executor of the other
+        Thread.sleep(1000);
+        assertEquals(1, c.countBusy());
+        assertTrue(b.isBuilding());
+        SemaphoreStep.success("concurrentB/1", null);
+        r.assertBuildStatusSuccess(f);
+        waitForBusy(c, 0);
+    }
+
+    private static void waitForBusy(Computer c, int busy) throws InterruptedException {
+        for (int i = 0; i < 100 && c.countBusy() != busy; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(busy, c.countBusy());
+    }
+
+}
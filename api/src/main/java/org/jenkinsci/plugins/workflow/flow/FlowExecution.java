@@ -135,6 +135,23 @@ public abstract class FlowExecution implements FlowActionStorage {
 
     public abstract void addListener(GraphListener listener);
 
+    /**
+     * Registers a listener which only cares about when a given node stops being a current head,
+     * for example to release something held while it runs.
+     * An implementation may then skip calling it for unrelated heads, but the listener must still check
+     * {@link FlowNode#isRunning} itself; by default this is simply {@link #addListener(GraphListener)}.
+     * A listener which is done should {@linkplain #removeListener remove} itself.
+     */
+    public void addListener(FlowNode node, GraphListener listener) {
+        addListener(listener);
+    }
+
+    /**
+     * Unregisters a listener added by either {@code addListener} method.
+     * By default does nothing, so the listener should also be prepared to be called again.
+     */
+    public void removeListener(GraphListener listener) {}
+
     /**
      * Checks whether this flow execution has finished executing completely.
      */
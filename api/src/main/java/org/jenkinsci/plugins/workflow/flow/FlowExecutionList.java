@@ -11,17 +11,30 @@ import hudson.XmlFile;
 import hudson.model.listeners.ItemListener;
 import hudson.remoting.SingleLaneExecutorService;
 import hudson.util.CopyOnWriteList;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import jenkins.model.Jenkins;
 import jenkins.util.Timer;
 import org.jenkinsci.plugins.workflow.steps.StepExecution;
 import org.jenkinsci.plugins.workflow.steps.StepExecutionIterator;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -162,25 +175,98 @@ public class FlowExecutionList implements Iterable<FlowExecution> {
 
         @Override
         public void onLoaded() {
-            for (FlowExecution e : list) {
-                LOGGER.log(FINE, "Eager loading {0}", e);
-                Futures.addCallback(e.getCurrentExecutions(), new FutureCallback<List<StepExecution>>() {
-                    @Override
-                    public void onSuccess(List<StepExecution> result) {
-                        for (StepExecution se : result) {
-                            se.onResume();
-                        }
-                    }
-
-                    @Override
-                    public void onFailure(Throwable t) {
-
+            List<FlowExecutionOwner> owners = new ArrayList<FlowExecutionOwner>(list.runningTasks.getView());
+            final Map<FlowExecutionOwner,Long> costs = new HashMap<FlowExecutionOwner,Long>();
+            for (FlowExecutionOwner o : owners) {
+                long cost = o.estimateResumeCost();
+                costs.put(o, cost < 0 ? Long.MAX_VALUE : cost);
+            }
+            // cheapest first, so that as many flows as possible are running again soon; unknown costs last
+            Collections.sort(owners, new Comparator<FlowExecutionOwner>() {
+                @Override public int compare(FlowExecutionOwner o1, FlowExecutionOwner o2) {
+                    return costs.get(o1).compareTo(costs.get(o2));
+                }
+            });
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (final FlowExecutionOwner o : owners) {
+                tasks.add(new Callable<Void>() {
+                    @Override public Void call() {
+                        resume(o);
+                        return null;
                     }
                 });
             }
+            long start = System.nanoTime();
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, RESUME_THREADS), new NamingThreadFactory(new DaemonThreadFactory(), "FlowExecutionList.resume"));
+            try {
+                pool.invokeAll(tasks);
+            } catch (InterruptedException x) {
+                LOGGER.log(WARNING, "interrupted while resuming flows", x);
+            } finally {
+                pool.shutdown();
+            }
+            if (!owners.isEmpty()) {
+                LOGGER.log(INFO, "Loaded {0} running flows in {1}ms", new Object[] {owners.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)});
+            }
         }
+
+        private void resume(FlowExecutionOwner o) {
+            long start = System.nanoTime();
+            FlowExecution e;
+            try {
+                e = o.get();
+            } catch (IOException x) {
+                LOGGER.log(WARNING, "Failed to load " + o + ". Unregistering", x);
+                list.unregister(o);
+                return;
+            } catch (RuntimeException x) {
+                LOGGER.log(WARNING, "Failed to load " + o, x);
+                return;
+            }
+            long loadTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            list.loadTimes.put(o, loadTime);
+            if (e.isComplete()) {
+                list.unregister(o);
+                return;
+            }
+            LOGGER.log(FINE, "Eager loading {0} took {1}ms", new Object[] {e, loadTime});
+            Futures.addCallback(e.getCurrentExecutions(), new FutureCallback<List<StepExecution>>() {
+                @Override
+                public void onSuccess(List<StepExecution> result) {
+                    for (StepExecution se : result) {
+                        se.onResume();
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+
+                }
+            });
+        }
+    }
+
+    /**
+     * How long it took to load each flow when Jenkins started, in milliseconds.
+     */
+    private final Map<FlowExecutionOwner,Long> loadTimes = new ConcurrentHashMap<FlowExecutionOwner,Long>();
+
+    /**
+     * Time it took to load the owner of a flow and the flow itself after Jenkins started,
+     * not counting what the flow then does asynchronously to resume.
+     * @return milliseconds, or null if the flow was not resumed after startup
+     */
+    public @CheckForNull Long getLoadTime(FlowExecutionOwner owner) {
+        return loadTimes.get(owner);
     }
 
+    /**
+     * Number of threads used to load running flows after a restart.
+     * The default of one loads them one at a time, as in earlier versions.
+     */
+    @Restricted(NoExternalUse.class)
+    public static int RESUME_THREADS = Integer.getInteger(FlowExecutionList.class.getName() + ".resumeThreads", 1);
+
     /**
      * Enumerates {@link StepExecution}s running inside {@link FlowExecution}.
      */
@@ -81,6 +81,16 @@ public abstract class FlowExecutionOwner implements Serializable {
         return getUrl()+"execution/";
     }
 
+    /**
+     * Roughly estimates how much work it would be to resume this flow after a restart,
+     * such as the size of its persisted state, ideally without loading anything.
+     * Used to resume cheap flows first.
+     * @return some nonnegative number where smaller means cheaper, or -1 if unknown
+     */
+    public long estimateResumeCost() {
+        return -1;
+    }
+
     /**
      * {@link FlowExecutionOwner}s are equal to one another if and only if
      * they point to the same {@link FlowExecution} object.
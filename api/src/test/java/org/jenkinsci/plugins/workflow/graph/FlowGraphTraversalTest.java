@@ -0,0 +1,202 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.workflow.graph;
+
+import com.google.common.base.Predicates;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import static org.mockito.Mockito.*;
+
+public class FlowGraphTraversalTest {
+
+    private FlowExecution exec;
+    private final Map<String,FlowNode> nodes = new HashMap<String,FlowNode>();
+
+    @Before public void setUp() throws Exception {
+        exec = mock(FlowExecution.class);
+        when(exec.getNode(anyString())).thenAnswer(new Answer<FlowNode>() {
+            @Override public FlowNode answer(InvocationOnMock invocation) throws Throwable {
+                return nodes.get((String) invocation.getArguments()[0]);
+            }
+        });
+    }
+
+    /** 2, 3, then branches 4-5 and 6, joined by 7, then 8. */
+    private FlowNode parallel() {
+        FlowNode start = add(new Atom(exec, "2"));
+        FlowNode block = add(new Start(exec, "3", start));
+        FlowNode a1 = add(new Start(exec, "4", block));
+        FlowNode a2 = add(new Atom(exec, "5", a1));
+        FlowNode b = add(new Atom(exec, "6", block));
+        FlowNode join = add(new Atom(exec, "7", a2, b));
+        FlowNode end = add(new Atom(exec, "8", join));
+        when(exec.getCurrentHeads()).thenReturn(Collections.singletonList(end));
+        return end;
+    }
+
+    private FlowNode add(FlowNode n) {
+        nodes.put(n.getId(), n);
+        return n;
+    }
+
+    private static List<String> ids(FlowGraphTraversal t) {
+        List<String> ids = new ArrayList<String>();
+        FlowNode n;
+        while ((n = t.next()) != null) {
+            ids.add(n.getId());
+        }
+        return ids;
+    }
+
+    private static List<String> walk(FlowGraphWalker w) {
+        List<String> ids = new ArrayList<String>();
+        FlowNode n;
+        while ((n = w.next()) != null) {
+            ids.add(n.getId());
+        }
+        return ids;
+    }
+
+    @Test public void sameOrderAsWalker() {
+        parallel();
+        assertEquals("[8, 7, 5, 4, 3, 2, 6]", ids(new FlowGraphTraversal(exec)).toString());
+        assertEquals(walk(new FlowGraphWalker(exec)), ids(new FlowGraphTraversal(exec)));
+    }
+
+    @Test public void otherIds() {
+        FlowNode a = add(new Atom(exec, "a"));
+        FlowNode b = add(new Atom(exec, "007", a));
+        FlowNode c = add(new Atom(exec, "7", b, a));
+        FlowGraphTraversal t = new FlowGraphTraversal();
+        t.addHead(c);
+        assertEquals("[7, 007, a]", ids(t).toString());
+    }
+
+    @Test public void filterAndPrune() {
+        parallel();
+        FlowGraphTraversal t = new FlowGraphTraversal(exec);
+        t.setFilter(Predicates.instanceOf(BlockStartNode.class));
+        assertEquals("[4, 3]", ids(t).toString());
+
+        t = new FlowGraphTraversal(exec);
+        t.setFilter(Predicates.instanceOf(BlockStartNode.class));
+        assertEquals("4", t.next().getId());
+        t.prune();
+        // 3 is still reachable through 6
+        assertEquals("3", t.next().getId());
+        t.prune();
+        assertNull(t.next());
+    }
+
+    @Test public void resume() throws Exception {
+        parallel();
+        FlowGraphTraversal t = new FlowGraphTraversal(exec);
+        t.next();
+        t.next();
+        t.next();
+        FlowGraphTraversal.Cursor cursor = t.save();
+        assertFalse(cursor.isDone());
+        assertEquals("[4, 3, 2, 6]", ids(t).toString());
+        assertTrue(t.save().isDone());
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(cursor);
+        oos.close();
+        cursor = (FlowGraphTraversal.Cursor) new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray())).readObject();
+        assertEquals("[4, 3, 2, 6]", ids(new FlowGraphTraversal(exec, cursor)).toString());
+    }
+
+    @Test public void index() {
+        assertEquals(0, FlowGraphTraversal.index("0"));
+        assertEquals(123, FlowGraphTraversal.index("123"));
+        assertEquals(-1, FlowGraphTraversal.index(""));
+        assertEquals(-1, FlowGraphTraversal.index("012"));
+        assertEquals(-1, FlowGraphTraversal.index("-1"));
+        assertEquals(-1, FlowGraphTraversal.index("1x"));
+        assertEquals(-1, FlowGraphTraversal.index("1234567890"));
+    }
+
+    /**
+     * Rough comparison with {@link FlowGraphWalker} over a long graph with many branches; run with {@code -Dbenchmark=true}.
+     */
+    @Test public void benchmark() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+        int id = 2;
+        FlowNode head = new Atom(exec, Integer.toString(id++));
+        for (int i = 0; i < 20000; i++) {
+            FlowNode block = new Start(exec, Integer.toString(id++), head);
+            FlowNode a = new Atom(exec, Integer.toString(id++), block);
+            FlowNode b = new Atom(exec, Integer.toString(id++), block);
+            head = new Atom(exec, Integer.toString(id++), a, b);
+        }
+        when(exec.getCurrentHeads()).thenReturn(Collections.singletonList(head));
+        int n = id - 2;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            FlowGraphWalker w = new FlowGraphWalker(exec);
+            while (w.next() != null) {}
+            long walker = System.nanoTime() - start;
+            start = System.nanoTime();
+            FlowGraphTraversal t = new FlowGraphTraversal(exec);
+            while (t.next() != null) {}
+            long traversal = System.nanoTime() - start;
+            System.out.printf("%d nodes; FlowGraphWalker: %dns/node, FlowGraphTraversal: %dns/node%n", n, walker / n, traversal / n);
+        }
+    }
+
+    private static final class Atom extends AtomNode {
+        Atom(FlowExecution exec, String id, FlowNode... parents) {
+            super(exec, id, parents);
+        }
+        @Override protected String getTypeDisplayName() {
+            return "atom";
+        }
+    }
+
+    private static final class Start extends BlockStartNode {
+        Start(FlowExecution exec, String id, FlowNode... parents) {
+            super(exec, id, parents);
+        }
+        @Override protected String getTypeDisplayName() {
+            return "start";
+        }
+    }
+
+}
@@ -48,6 +48,11 @@ public class ArtifactArchiverStep extends AbstractStepImpl {
             return "archive";
         }
 
+        @Override
+        public boolean runsInBackground() {
+            return true;
+        }
+
         @Override
         public String getDisplayName() {
             return "Archive Artifacts";
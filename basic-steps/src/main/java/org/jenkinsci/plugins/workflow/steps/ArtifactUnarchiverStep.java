@@ -31,6 +31,11 @@ public class ArtifactUnarchiverStep extends AbstractStepImpl {
             return "unarchive";
         }
 
+        @Override
+        public boolean runsInBackground() {
+            return true;
+        }
+
         @Override
         public String getDisplayName() {
             return "Copy archived artifacts into the workspace";
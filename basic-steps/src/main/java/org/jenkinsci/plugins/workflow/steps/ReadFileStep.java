@@ -69,6 +69,10 @@ public final class ReadFileStep extends AbstractStepImpl {
             return "readFile";
         }
 
+        @Override public boolean runsInBackground() {
+            return true;
+        }
+
         @Override public String getDisplayName() {
             return "Read file from workspace";
         }
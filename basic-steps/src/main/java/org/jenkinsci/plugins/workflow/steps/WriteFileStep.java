@@ -68,6 +68,10 @@ public final class WriteFileStep extends AbstractStepImpl {
             return "writeFile";
         }
 
+        @Override public boolean runsInBackground() {
+            return true;
+        }
+
         @Override public String getDisplayName() {
             return "Write file to workspace";
         }
@@ -0,0 +1,239 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.workflow.cps;
+
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovyCodeSource;
+import hudson.Util;
+import java.security.CodeSource;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.GuardedBy;
+import org.codehaus.groovy.control.CompilationFailedException;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.Phases;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.tools.GroovyClass;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Remembers the bytecode of CPS-transformed scripts, so that running or resuming the same script again
+ * does not need to go through the Groovy compiler and the CPS transformation.
+ *
+ * <p>
+ * Entries are keyed by a digest of the script text along with its class name, whether it is sandboxed,
+ * and which {@link GroovyShellDecorator}s were in effect.
+ * Decorators are identified by class only, so the cache relies on each one configuring the compiler
+ * the same way for every execution, as documented on {@link GroovyShellDecorator#configureCompiler}.
+ * Each {@link CpsGroovyShell} still defines the classes in its own class loader, so executions share nothing at runtime.
+ * Only scripts which compile on their own are kept: if the compiler picked up other sources,
+ * for example from the global library, those may change independently, so the result is not cached.
+ *
+ * <p>
+ * Compilation statistics are collected whether or not the cache is enabled.
+ */
+public final class CompiledScriptCache {
+
+    /**
+     * Whether {@link CpsGroovyShell} should use this cache.
+     */
+    @Restricted(NoExternalUse.class)
+    public static boolean ENABLED = Boolean.getBoolean(CompiledScriptCache.class.getName() + ".enabled");
+
+    /**
+     * Maximum number of scripts to keep.
+     */
+    private static final int CAPACITY = Integer.getInteger(CompiledScriptCache.class.getName() + ".capacity", 100);
+
+    @GuardedBy("entries")
+    private static final Map<String,Entry> entries = new LinkedHashMap<String,Entry>(16, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<String,Entry> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong compilations = new AtomicLong();
+    private static final AtomicLong compileTime = new AtomicLong();
+
+    /**
+     * Loads a script class, from the cache if possible.
+     * @param decorators identifies the compiler configuration besides the sandbox flag
+     */
+    static Class<?> load(GroovyCodeSource source, boolean sandbox, String decorators, CompilerConfiguration config, Loader loader) throws CompilationFailedException {
+        String key = Util.getDigestOf(source.getScriptText()) + ':' + source.getName() + ':' + sandbox + ':' + decorators;
+        Entry e;
+        synchronized (entries) {
+            e = entries.get(key);
+        }
+        if (e != null) {
+            hits.incrementAndGet();
+            return e.define(loader, source.getCodeSource());
+        }
+        misses.incrementAndGet();
+        long start = System.nanoTime();
+        CompilationUnit cu = new CompilationUnit(config, source.getCodeSource(), loader);
+        SourceUnit su = cu.addSource(source.getName(), source.getScriptText());
+        cu.compile(Phases.CLASS_GENERATION);
+        recordCompilation(System.nanoTime() - start);
+
+        @SuppressWarnings("unchecked") List<GroovyClass> classes = cu.getClasses();
+        String[] names = new String[classes.size()];
+        byte[][] bytecode = new byte[classes.size()][];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = classes.get(i).getName();
+            bytecode[i] = classes.get(i).getBytes();
+        }
+        String mainClass = su.getAST().getMainClassName();
+        e = new Entry(mainClass != null ? mainClass : names[0], names, bytecode);
+        int sources = 0;
+        for (Iterator<?> it = cu.iterator(); it.hasNext(); it.next()) {
+            sources++;
+        }
+        if (sources == 1) {
+            synchronized (entries) {
+                entries.put(key, e);
+            }
+        }
+        return e.define(loader, source.getCodeSource());
+    }
+
+    static void recordCompilation(long nanos) {
+        compilations.incrementAndGet();
+        compileTime.addAndGet(nanos);
+    }
+
+    /**
+     * Number of scripts loaded from the cache.
+     */
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Number of scripts which had to be compiled while the cache was enabled.
+     */
+    public static long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Fraction of lookups which were satisfied from the cache, or 0 if there were none.
+     */
+    public static double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * Number of times a script was compiled, whether or not the cache is enabled.
+     */
+    public static long getCompilationCount() {
+        return compilations.get();
+    }
+
+    /**
+     * Total time spent compiling scripts, in milliseconds.
+     */
+    public static long getTotalCompilationTime() {
+        return TimeUnit.NANOSECONDS.toMillis(compileTime.get());
+    }
+
+    public static int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Compiled classes of one script, in the order the compiler produced them,
+     * which is also an order in which they can be defined.
+     */
+    private static final class Entry {
+        final String mainClass;
+        final String[] names;
+        final byte[][] bytecode;
+
+        Entry(String mainClass, String[] names, byte[][] bytecode) {
+            this.mainClass = mainClass;
+            this.names = names;
+            this.bytecode = bytecode;
+        }
+
+        Class<?> define(Loader loader, CodeSource codeSource) {
+            Class<?> main = null;
+            for (int i = 0; i < names.length; i++) {
+                Class<?> c = loader.define(names[i], bytecode[i], codeSource);
+                if (names[i].equals(mainClass)) {
+                    main = c;
+                }
+            }
+            return main;
+        }
+    }
+
+    /**
+     * Defines the classes of one script.
+     * Like {@link GroovyClassLoader#parseClass(GroovyCodeSource)} this is an {@link GroovyClassLoader.InnerLoader} per script,
+     * but since classes defined here are not registered with the shell's own loader,
+     * all loaders of a shell share a table of what they defined, so scripts can still see one another's classes,
+     * as when the program is deserialized.
+     */
+    static final class Loader extends GroovyClassLoader.InnerLoader {
+        private final Map<String,Class<?>> defined;
+
+        Loader(GroovyClassLoader delegate, Map<String,Class<?>> defined) {
+            super(delegate);
+            this.defined = defined;
+        }
+
+        Class<?> define(String name, byte[] code, @CheckForNull CodeSource codeSource) {
+            Class<?> c = defineClass(name, code, 0, code.length, codeSource);
+            defined.put(name, c);
+            return c;
+        }
+
+        @SuppressWarnings("rawtypes")
+        @Override public Class loadClass(String name, boolean lookupScriptFiles, boolean preferClassOverScript, boolean resolve) throws ClassNotFoundException, CompilationFailedException {
+            Class<?> c = defined.get(name);
+            if (c != null) {
+                return c;
+            }
+            return super.loadClass(name, lookupScriptFiles, preferClassOverScript, resolve);
+        }
+    }
+
+    private CompiledScriptCache() {}
+
+}
@@ -35,6 +35,7 @@ import com.cloudbees.groovy.cps.sandbox.SandboxInvoker;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.XStreamException;
@@ -45,13 +46,16 @@ import com.thoughtworks.xstream.converters.reflection.ReflectionProvider;
 import com.thoughtworks.xstream.io.HierarchicalStreamReader;
 import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
 import com.thoughtworks.xstream.mapper.Mapper;
+import groovy.lang.GroovyClassLoader;
 import groovy.lang.GroovyShell;
 import hudson.model.Action;
 import hudson.model.Result;
 import hudson.util.Iterators;
 import jenkins.model.CauseOfInterruption;
 import jenkins.model.Jenkins;
+import jenkins.util.Timer;
 import org.jboss.marshalling.Unmarshaller;
+import org.jenkinsci.plugins.scriptsecurity.sandbox.Whitelist;
 import org.jenkinsci.plugins.workflow.actions.ErrorAction;
 import org.jenkinsci.plugins.workflow.cps.persistence.PersistIn;
 import org.jenkinsci.plugins.workflow.flow.FlowExecution;
@@ -68,7 +72,9 @@ import org.jenkinsci.plugins.workflow.steps.StepExecution;
 import org.jenkinsci.plugins.workflow.support.concurrent.Futures;
 import org.jenkinsci.plugins.workflow.support.pickles.serialization.PickleResolver;
 import org.jenkinsci.plugins.workflow.support.pickles.serialization.RiverReader;
+import org.jenkinsci.plugins.workflow.support.storage.BufferedFlowNodeStorage;
 import org.jenkinsci.plugins.workflow.support.storage.FlowNodeStorage;
+import org.jenkinsci.plugins.workflow.support.storage.SegmentedFlowNodeStorage;
 import org.jenkinsci.plugins.workflow.support.storage.SimpleXStreamFlowNodeStorage;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
@@ -79,15 +85,17 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
 import java.util.Stack;
 import java.util.TreeMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -229,7 +237,7 @@ public class CpsFlowExecution extends FlowExecution {
 
     private final AtomicInteger iota = new AtomicInteger();
 
-    private transient List<GraphListener> listeners;
+    private transient volatile GraphListenerRegistry listeners;
 
     /**
      * Result set from {@link StepContext}. Start by success and progressively gets worse.
@@ -253,6 +261,9 @@ public class CpsFlowExecution extends FlowExecution {
     /** Class of the {@link CpsScript}; its loader is a {@link groovy.lang.GroovyClassLoader.InnerLoader}, not the same as {@code shell.getClassLoader()}. */
     private transient Class<?> scriptClass;
 
+    /** Sandbox whitelist for {@link #shell}, created on demand. */
+    private transient volatile ExecutionWhitelist whitelist;
+
     /** Actions to add to the {@link FlowStartNode}. */
     transient final List<Action> flowStartNodeActions = new ArrayList<Action>();
 
@@ -288,6 +299,19 @@ public class CpsFlowExecution extends FlowExecution {
         return shell;
     }
 
+    /**
+     * Whitelist to run sandboxed code of this execution with.
+     */
+    /*package*/ Whitelist getWhitelist() {
+        GroovyClassLoader loader = shell.getClassLoader();
+        ExecutionWhitelist w = whitelist;
+        if (w == null || !w.isFor(loader)) {
+            w = new ExecutionWhitelist(loader);
+            whitelist = w;
+        }
+        return w;
+    }
+
     public FlowNodeStorage getStorage() {
         return storage;
     }
@@ -304,8 +328,20 @@ public class CpsFlowExecution extends FlowExecution {
         return owner;
     }
 
-    private SimpleXStreamFlowNodeStorage createStorage() throws IOException {
-        return new SimpleXStreamFlowNodeStorage(this, getStorageDir());
+    /**
+     * Picks the {@link FlowNodeStorage} for this execution.
+     * A directory that already has segments keeps using them regardless of {@link #SEGMENTED_STORAGE}.
+     * Writes are buffered, and flushed whenever {@link CpsThreadGroup} or this object is saved.
+     */
+    private FlowNodeStorage createStorage() throws IOException {
+        File dir = getStorageDir();
+        FlowNodeStorage s;
+        if (SEGMENTED_STORAGE || SegmentedFlowNodeStorage.isSegmented(dir)) {
+            s = new SegmentedFlowNodeStorage(this, dir);
+        } else {
+            s = new SimpleXStreamFlowNodeStorage(this, dir);
+        }
+        return new BufferedFlowNodeStorage(s);
     }
 
     /**
@@ -391,6 +427,49 @@ public class CpsFlowExecution extends FlowExecution {
         }
     }
 
+    /**
+     * How long each phase of {@link #loadProgramAsync} took, in milliseconds.
+     */
+    private transient volatile Map<String,Long> resumeTimings;
+
+    /**
+     * Durations in milliseconds of the phases of loading this program after a restart, so far:
+     * {@code compile}, {@code readPickles}, {@code rehydrate} and {@code unmarshal}.
+     * Empty if the program was not loaded from disk.
+     * Loading the build itself is covered by {@link org.jenkinsci.plugins.workflow.flow.FlowExecutionList#getLoadTime}.
+     */
+    public Map<String,Long> getResumeTimings() {
+        Map<String,Long> timings = resumeTimings;
+        if (timings == null) {
+            return Collections.emptyMap();
+        }
+        synchronized (timings) {
+            return new LinkedHashMap<String,Long>(timings);
+        }
+    }
+
+    /**
+     * Pickles being rehydrated by {@link #loadProgramAsync}, until that completes.
+     */
+    private transient volatile PickleResolver pickleResolver;
+
+    /**
+     * Number of pickles, such as executors or workspaces, this program is waiting for before it can resume.
+     * Zero once it has been loaded.
+     */
+    public int getPendingPickleCount() {
+        PickleResolver resolver = pickleResolver;
+        return resolver == null ? 0 : resolver.getPendingCount();
+    }
+
+    /**
+     * Total number of pickles this program is restoring; zero once it has been loaded.
+     */
+    public int getPickleCount() {
+        PickleResolver resolver = pickleResolver;
+        return resolver == null ? 0 : resolver.getPickleCount();
+    }
+
     /**
      * Deserializes {@link CpsThreadGroup} from {@link #getProgramDataFile()} if necessary.
      *
@@ -401,19 +480,46 @@ public class CpsFlowExecution extends FlowExecution {
         final SettableFuture<CpsThreadGroup> result = SettableFuture.create();
         programPromise = result;
 
+        final Map<String,Long> timings = Collections.synchronizedMap(new LinkedHashMap<String,Long>());
+        resumeTimings = timings;
         try {
+            long start = System.nanoTime();
             scriptClass = parseScript().getClass();
+            final long compiled = System.nanoTime();
+            timings.put("compile", TimeUnit.NANOSECONDS.toMillis(compiled - start));
 
             RiverReader r = new RiverReader(programDataFile, scriptClass.getClassLoader(), owner);
+            ListenableFuture<Unmarshaller> restored = r.restorePickles();
+            final long read = System.nanoTime();
+            timings.put("readPickles", TimeUnit.NANOSECONDS.toMillis(read - compiled));
+            final PickleResolver resolver = r.getPickleResolver();
+            pickleResolver = resolver;
+            final ScheduledFuture<?> progress = resolver == null || resolver.getPickleCount() == 0 ? null : Timer.get().scheduleWithFixedDelay(new Runnable() {
+                @Override public void run() {
+                    LOGGER.log(Level.INFO, "{0} still waiting for {1} of {2} pickles: {3}", new Object[] {owner, resolver.getPendingCount(), resolver.getPickleCount(), resolver.getPending()});
+                }
+            }, PICKLE_PROGRESS_PERIOD, PICKLE_PROGRESS_PERIOD, TimeUnit.SECONDS);
+            restored.addListener(new Runnable() {
+                @Override public void run() {
+                    if (progress != null) {
+                        progress.cancel(false);
+                    }
+                    pickleResolver = null;
+                }
+            }, MoreExecutors.sameThreadExecutor());
             Futures.addCallback(
-                    r.restorePickles(),
+                    restored,
 
                     new FutureCallback<Unmarshaller>() {
                         public void onSuccess(Unmarshaller u) {
+                            long rehydrated = System.nanoTime();
+                            timings.put("rehydrate", TimeUnit.NANOSECONDS.toMillis(rehydrated - read));
                             CpsFlowExecution old = PROGRAM_STATE_SERIALIZATION.get();
                             PROGRAM_STATE_SERIALIZATION.set(CpsFlowExecution.this);
                             try {
                                 CpsThreadGroup g = (CpsThreadGroup) u.readObject();
+                                timings.put("unmarshal", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - rehydrated));
+                                LOGGER.log(Level.FINE, "resumed {0}: {1}", new Object[] {owner, timings});
                                 result.set(g);
                             } catch (Throwable t) {
                                 onFailure(t);
@@ -615,10 +721,35 @@ public class CpsFlowExecution extends FlowExecution {
 
     @Override
     public void addListener(GraphListener listener) {
+        getListeners().add(listener);
+    }
+
+    @Override
+    public void addListener(FlowNode node, GraphListener listener) {
+        getListeners().add(node.getId(), listener);
+    }
+
+    @Override
+    public void removeListener(GraphListener listener) {
+        GraphListenerRegistry l = listeners;
+        if (l != null) {
+            l.remove(listener);
+        }
+    }
+
+    private synchronized GraphListenerRegistry getListeners() {
         if (listeners == null) {
-            listeners = new CopyOnWriteArrayList<GraphListener>();
+            listeners = new GraphListenerRegistry();
         }
-        listeners.add(listener);
+        return listeners;
+    }
+
+    /**
+     * Number of {@link GraphListener}s currently registered, including those watching a single node.
+     */
+    public int getActiveListenerCount() {
+        GraphListenerRegistry l = listeners;
+        return l != null ? l.size() : 0;
     }
 
     @Override
@@ -688,6 +819,12 @@ public class CpsFlowExecution extends FlowExecution {
         heads.clear();
         heads.put(first.getId(),first);
 
+        try {
+            storage.finish();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to finish the flow node storage of " + this, e);
+        }
+
         // clean up heap
         shell = null;
         SerializableClassRegistry.getInstance().release(scriptClass.getClassLoader());
@@ -701,10 +838,9 @@ public class CpsFlowExecution extends FlowExecution {
     }
 
     void notifyListeners(FlowNode node) {
-        if (listeners != null) {
-            for (GraphListener listener : listeners) {
-                listener.onNewHead(node);
-            }
+        GraphListenerRegistry l = listeners;
+        if (l != null) {
+            l.notify(node);
         }
     }
 
@@ -743,6 +879,15 @@ public class CpsFlowExecution extends FlowExecution {
         public void marshal(Object source, HierarchicalStreamWriter w, MarshallingContext context) {
             CpsFlowExecution e = (CpsFlowExecution) source;
 
+            if (e.storage != null) {
+                // the heads and start nodes we refer to below must be on disk
+                try {
+                    e.storage.flush();
+                } catch (IOException x) {
+                    LOGGER.log(Level.WARNING, "Failed to flush flow nodes of " + e, x);
+                }
+            }
+
             writeChild(w, context, "result", e.result, Result.class);
             writeChild(w, context, "script", e.script, String.class);
             writeChild(w, context, "loadedScripts", e.loadedScripts, Map.class);
@@ -857,6 +1002,19 @@ public class CpsFlowExecution extends FlowExecution {
 
     private static final Logger LOGGER = Logger.getLogger(CpsFlowExecution.class.getName());
 
+    /**
+     * If true, new executions append their flow nodes to a few segment files
+     * using {@link SegmentedFlowNodeStorage}, rather than writing one file per node.
+     */
+    @Restricted(NoExternalUse.class)
+    public static boolean SEGMENTED_STORAGE = Boolean.getBoolean(CpsFlowExecution.class.getName() + ".segmentedStorage");
+
+    /**
+     * How often, in seconds, to log which pickles a resuming program is still waiting for.
+     */
+    @Restricted(NoExternalUse.class)
+    public static int PICKLE_PROGRESS_PERIOD = Integer.getInteger(CpsFlowExecution.class.getName() + ".pickleProgressPeriod", 60);
+
     /**
      * While we serialize/deserialize {@link CpsThreadGroup} and the entire program execution state,
      * this field is set to {@link CpsFlowExecution} that will own it.
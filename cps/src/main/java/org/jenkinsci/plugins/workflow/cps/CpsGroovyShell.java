@@ -11,10 +11,13 @@ import jenkins.model.Jenkins;
 import org.codehaus.groovy.control.CompilationFailedException;
 import org.codehaus.groovy.control.CompilerConfiguration;
 import org.codehaus.groovy.control.customizers.ImportCustomizer;
+import org.codehaus.groovy.runtime.InvokerHelper;
 import org.jenkinsci.plugins.scriptsecurity.sandbox.groovy.GroovySandbox;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * {@link GroovyShell} with additional tweaks necessary to run {@link CpsScript}
@@ -29,9 +32,21 @@ class CpsGroovyShell extends GroovyShell {
      */
     private final @Nullable CpsFlowExecution execution;
 
+    private final CompilerConfiguration config;
+
+    /**
+     * Classes defined when using {@link CompiledScriptCache}, by name.
+     */
+    private final Map<String,Class<?>> definedClasses = new ConcurrentHashMap<String,Class<?>>();
+
     CpsGroovyShell(CpsFlowExecution execution) {
-        super(makeClassLoader(),new Binding(),makeConfig(execution));
+        this(execution, makeConfig(execution));
+    }
+
+    private CpsGroovyShell(CpsFlowExecution execution, CompilerConfiguration config) {
+        super(makeClassLoader(),new Binding(),config);
         this.execution = execution;
+        this.config = config;
 
         for (GroovyShellDecorator d : GroovyShellDecorator.all()) {
             d.configureShell(execution,this);
@@ -85,7 +100,7 @@ class CpsGroovyShell extends GroovyShell {
      */
     @Override
     public Script parse(GroovyCodeSource codeSource) throws CompilationFailedException {
-        Script s = super.parse(codeSource);
+        Script s = doParse(codeSource);
         if (execution!=null)
             execution.loadedScripts.put(s.getClass().getName(), codeSource.getScriptText());
         prepareScript(s);
@@ -97,7 +112,25 @@ class CpsGroovyShell extends GroovyShell {
      * (therefore we don't want to record this.)
      */
     /*package*/ Script reparse(String className, String text) throws CompilationFailedException {
-        return super.parse(new GroovyCodeSource(text,className,DEFAULT_CODE_BASE));
+        return doParse(new GroovyCodeSource(text,className,DEFAULT_CODE_BASE));
+    }
+
+    private Script doParse(GroovyCodeSource codeSource) throws CompilationFailedException {
+        if (!CompiledScriptCache.ENABLED) {
+            long start = System.nanoTime();
+            try {
+                return super.parse(codeSource);
+            } finally {
+                CompiledScriptCache.recordCompilation(System.nanoTime() - start);
+            }
+        }
+        StringBuilder decorators = new StringBuilder();
+        for (GroovyShellDecorator d : GroovyShellDecorator.all()) {
+            decorators.append(d.getClass().getName()).append(',');
+        }
+        Class<?> c = CompiledScriptCache.load(codeSource, execution != null && execution.isSandbox(), decorators.toString(), config,
+                new CompiledScriptCache.Loader(getClassLoader(), definedClasses));
+        return InvokerHelper.createScript(c, getContext());
     }
 
     /**
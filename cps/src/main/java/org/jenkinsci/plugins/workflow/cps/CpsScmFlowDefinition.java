@@ -28,18 +28,26 @@ import hudson.Extension;
 import hudson.FilePath;
 import hudson.model.Action;
 import hudson.model.Computer;
+import hudson.model.Item;
 import hudson.model.Job;
 import hudson.model.Node;
 import hudson.model.Queue;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.model.TopLevelItem;
+import hudson.model.listeners.ItemListener;
 import hudson.scm.SCM;
+import hudson.scm.PollingResult;
 import hudson.scm.SCMDescriptor;
+import hudson.scm.SCMRevisionState;
 import hudson.slaves.WorkspaceList;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.CheckForNull;
 import javax.inject.Inject;
 import jenkins.model.Jenkins;
 import org.jenkinsci.plugins.workflow.cps.persistence.PersistIn;
@@ -50,6 +58,8 @@ import org.jenkinsci.plugins.workflow.flow.FlowExecutionOwner;
 import org.jenkinsci.plugins.workflow.steps.scm.GenericSCMStep;
 import org.jenkinsci.plugins.workflow.steps.scm.SCMStep;
 import org.jenkinsci.plugins.workflow.support.actions.WorkspaceActionImpl;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.Stapler;
 import org.kohsuke.stapler.StaplerRequest;
@@ -103,25 +113,117 @@ public class CpsScmFlowDefinition extends FlowDefinition {
         if (computer == null) {
             throw new IOException(node.getDisplayName() + " may be offline");
         }
-        SCMStep delegate = new GenericSCMStep(scm);
-        delegate.setPoll(true);
-        delegate.setChangelog(true);
-        WorkspaceList.Lease lease = computer.getWorkspaceList().acquire(dir);
-        try {
-            delegate.checkout(build, dir, listener, node.createLauncher(listener));
-            FilePath scriptFile = dir.child(scriptPath);
-            if (!scriptFile.absolutize().getRemote().replace('\\', '/').startsWith(dir.absolutize().getRemote().replace('\\', '/') + '/')) { // TODO JENKINS-26838
-                throw new IOException(scriptFile + " is not inside " + dir);
+        String cacheKey = build.getParent().getFullName() + '\n' + scriptPath;
+        script = REUSE_UNCHANGED ? reuse(build, dir, computer, node, listener, cacheKey) : null;
+        if (script == null) {
+            SCMStep delegate = new GenericSCMStep(scm);
+            delegate.setPoll(true);
+            delegate.setChangelog(true);
+            WorkspaceList.Lease lease = computer.getWorkspaceList().acquire(dir);
+            try {
+                delegate.checkout(build, dir, listener, node.createLauncher(listener));
+                FilePath scriptFile = dir.child(scriptPath);
+                if (!scriptFile.absolutize().getRemote().replace('\\', '/').startsWith(dir.absolutize().getRemote().replace('\\', '/') + '/')) { // TODO JENKINS-26838
+                    throw new IOException(scriptFile + " is not inside " + dir);
+                }
+                script = scriptFile.readToString();
+            } finally {
+                lease.release();
+            }
+            SCMRevisionState state = SCMStep.getRevisionState(build, scm);
+            if (REUSE_UNCHANGED && state != null) {
+                scripts.put(cacheKey, new CachedScript(state, script));
             }
-            script = scriptFile.readToString();
-        } finally {
-            lease.release();
         }
         CpsFlowExecution exec = new CpsFlowExecution(script, true, owner);
         exec.flowStartNodeActions.add(new WorkspaceActionImpl(dir, null));
         return exec;
     }
 
+    /**
+     * Gets the script as last checked out, if the SCM reports no changes since then.
+     * Since the core SCM API offers no way to fetch a single file, the unit of reuse is a whole checkout;
+     * this way there is at most one checkout per revision rather than one per build.
+     * @return null if a checkout is needed
+     */
+    private @CheckForNull String reuse(Run<?,?> build, FilePath dir, Computer computer, Node node, TaskListener listener, String cacheKey) throws Exception {
+        Run<?,?> prev = build.getPreviousBuild();
+        CachedScript cached = scripts.get(cacheKey);
+        if (prev == null || cached == null) {
+            return null;
+        }
+        SCMRevisionState baseline = SCMStep.getRevisionState(prev, scm);
+        if (baseline == null || baseline != cached.state || !scm.supportsPolling()) {
+            return null; // from another SCM configuration, or loaded from disk
+        }
+        PollingResult result;
+        if (scm.requiresWorkspaceForPolling()) {
+            WorkspaceList.Lease lease = computer.getWorkspaceList().acquire(dir);
+            try {
+                result = scm.compareRemoteRevisionWith(build.getParent(), node.createLauncher(listener), dir, listener, baseline);
+            } finally {
+                lease.release();
+            }
+        } else {
+            result = scm.compareRemoteRevisionWith(build.getParent(), null, null, listener, baseline);
+        }
+        if (result.hasChanges()) {
+            return null;
+        }
+        listener.getLogger().println("No changes since " + prev.getFullDisplayName() + ", reusing " + scriptPath);
+        SCMStep.reuseCheckout(build, scm, dir, listener, baseline);
+        return cached.script;
+    }
+
+    /**
+     * If true, builds reuse the script from the last checkout when the SCM reports no changes, rather than checking out again.
+     * Off by default since the build then gets no checkout of its own, which some SCMs may rely on for polling.
+     */
+    @Restricted(NoExternalUse.class)
+    public static boolean REUSE_UNCHANGED = Boolean.getBoolean(CpsScmFlowDefinition.class.getName() + ".reuseUnchanged");
+
+    /** last checked-out script per job and path, as {@code fullName\npath} */
+    private static final Map<String,CachedScript> scripts = new ConcurrentHashMap<String,CachedScript>();
+
+    /**
+     * Number of scripts currently kept for reuse.
+     */
+    static int getCachedScriptCount() {
+        return scripts.size();
+    }
+
+    /**
+     * Forgets scripts of an item, or of anything inside it if it is a folder.
+     */
+    private static void forget(String fullName) {
+        Iterator<String> it = scripts.keySet().iterator();
+        while (it.hasNext()) {
+            String key = it.next();
+            if (key.startsWith(fullName + '\n') || key.startsWith(fullName + '/')) {
+                it.remove();
+            }
+        }
+    }
+
+    @Extension public static final class ItemListenerImpl extends ItemListener {
+        @Override public void onDeleted(Item item) {
+            forget(item.getFullName());
+        }
+        @Override public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            forget(oldFullName);
+        }
+    }
+
+    private static final class CachedScript {
+        /** the polling baseline recorded by the checkout, compared by identity so entries do not survive a restart */
+        final SCMRevisionState state;
+        final String script;
+        CachedScript(SCMRevisionState state, String script) {
+            this.state = state;
+            this.script = script;
+        }
+    }
+
     @Extension public static class DescriptorImpl extends FlowDefinitionDescriptor {
 
         @Inject public Snippetizer snippetizer;
@@ -31,11 +31,14 @@ import groovy.lang.Closure;
 import groovy.lang.Script;
 import hudson.Util;
 import hudson.model.Result;
+import jenkins.util.Timer;
 import org.jenkinsci.plugins.workflow.actions.ErrorAction;
 import org.jenkinsci.plugins.workflow.cps.persistence.PersistIn;
 import org.jenkinsci.plugins.workflow.graph.FlowNode;
 import org.jenkinsci.plugins.workflow.steps.FlowInterruptedException;
 import org.jenkinsci.plugins.workflow.support.pickles.serialization.RiverWriter;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 import java.io.File;
 import java.io.IOException;
@@ -97,6 +100,27 @@ public final class CpsThreadGroup implements Serializable {
      */
     public final Map<Integer,Closure> closures = new HashMap<Integer,Closure>();
 
+    /**
+     * True if the program has run since the last time it was saved.
+     */
+    private transient boolean dirty;
+
+    /**
+     * True if a deferred {@link #checkpoint()} is already scheduled.
+     */
+    private transient boolean checkpointScheduled;
+
+    /**
+     * When the program was last saved, in {@link System#currentTimeMillis()}; 0 if not yet since loaded.
+     */
+    private transient long lastCheckpoint;
+
+    private transient volatile long checkpointCount;
+    private transient volatile long lastCheckpointSize;
+    private transient volatile long lastCheckpointDuration;
+    private transient volatile long totalCheckpointSize;
+    private transient volatile long totalCheckpointDuration;
+
     CpsThreadGroup(CpsFlowExecution execution) {
         this.execution = execution;
         setupTransients();
@@ -296,8 +320,69 @@ public final class CpsThreadGroup implements Serializable {
         } while (changed);
 
         if (doneSomeWork) {
-            saveProgram();
+            dirty = true;
+            checkpoint();
+        }
+    }
+
+    /**
+     * Saves the program if it has changed since the last save, subject to
+     * {@link #CHECKPOINT_INTERVAL} and {@link #CHECKPOINT_AT_STEPS_ONLY}.
+     *
+     * If the save has to wait, the program stays dirty and will be saved either at the end of the next chunk of work
+     * or by a deferred call once the interval has elapsed, whichever comes first.
+     */
+    @CpsVmThreadOnly("root")
+    private void checkpoint() throws IOException {
+        assertVmThread();
+        if (!dirty) {
+            return;
+        }
+        if (CHECKPOINT_AT_STEPS_ONLY && !isAtStepBoundary()) {
+            LOGGER.log(FINER, "deferring program save of {0} until all threads are waiting on steps", execution);
+            return;
+        }
+        long wait = lastCheckpoint + CHECKPOINT_INTERVAL - System.currentTimeMillis();
+        if (wait > 0) {
+            scheduleCheckpoint(wait);
+            return;
         }
+        saveProgram();
+    }
+
+    /**
+     * Checks if every live thread is blocked on a step,
+     * i.e. the program is at a point from which it can be resumed without replaying any script code.
+     */
+    private boolean isAtStepBoundary() {
+        for (CpsThread t : threads.values()) {
+            if (t.isRunnable() || t.getStep() == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void scheduleCheckpoint(long delay) {
+        if (checkpointScheduled) {
+            return;
+        }
+        checkpointScheduled = true;
+        Timer.get().schedule(new Runnable() {
+            @Override public void run() {
+                try {
+                    runner.submit(new Callable<Void>() {
+                        @Override public Void call() throws Exception {
+                            checkpointScheduled = false;
+                            checkpoint();
+                            return null;
+                        }
+                    });
+                } catch (RejectedExecutionException x) {
+                    // program has already ended
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -326,14 +411,20 @@ public final class CpsThreadGroup implements Serializable {
 
     @CpsVmThreadOnly
     public void saveProgram(File f) throws IOException {
+        assertVmThread();
+
+        // the program state refers to flow nodes, so they need to be persisted first
+        execution.getStorage().flush();
+        // likewise for env.* overrides, which are saved in the build rather than on every assignment
+        EnvActionImpl.saveIfDirty(execution);
+
         File dir = f.getParentFile();
         File tmpFile = File.createTempFile("atomic",null, dir);
 
-        assertVmThread();
-
         CpsFlowExecution old = PROGRAM_STATE_SERIALIZATION.get();
         PROGRAM_STATE_SERIALIZATION.set(execution);
 
+        long start = System.nanoTime();
         try {
             RiverWriter w = new RiverWriter(tmpFile, execution.getOwner());
             try {
@@ -341,11 +432,20 @@ public final class CpsThreadGroup implements Serializable {
             } finally {
                 w.close();
             }
+            long size = tmpFile.length();
             Util.deleteFile(f);
             if (!tmpFile.renameTo(f)) {
                 throw new IOException("rename " + tmpFile + " to " + f + " failed");
             }
-            LOGGER.log(FINE, "program state saved");
+            long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            dirty = false;
+            lastCheckpoint = System.currentTimeMillis();
+            checkpointCount++;
+            lastCheckpointSize = size;
+            lastCheckpointDuration = duration;
+            totalCheckpointSize += size;
+            totalCheckpointDuration += duration;
+            LOGGER.log(FINE, "program state saved: {0} bytes in {1}ms", new Object[] {size, duration});
         } catch (RuntimeException e) {
             LOGGER.log(WARNING, "program state save failed",e);
             propagateErrorToWorkflow(e);
@@ -360,6 +460,41 @@ public final class CpsThreadGroup implements Serializable {
         }
     }
 
+    /**
+     * Number of times the program state has been saved since it was loaded.
+     */
+    public long getCheckpointCount() {
+        return checkpointCount;
+    }
+
+    /**
+     * Size in bytes of the most recently saved program state.
+     */
+    public long getLastCheckpointSize() {
+        return lastCheckpointSize;
+    }
+
+    /**
+     * Time in milliseconds the most recent save of the program state took.
+     */
+    public long getLastCheckpointDuration() {
+        return lastCheckpointDuration;
+    }
+
+    /**
+     * Total bytes written by {@link #saveProgram(File)} since the program was loaded.
+     */
+    public long getTotalCheckpointSize() {
+        return totalCheckpointSize;
+    }
+
+    /**
+     * Total time in milliseconds spent in {@link #saveProgram(File)} since the program was loaded.
+     */
+    public long getTotalCheckpointDuration() {
+        return totalCheckpointDuration;
+    }
+
     /**
      * Propagates the failure to the workflow by passing an exception
      */
@@ -372,6 +507,23 @@ public final class CpsThreadGroup implements Serializable {
         threads.lastEntry().getValue().resume(new Outcome(null,t));
     }
 
+    /**
+     * Minimum time in milliseconds between two saves of the program state after it ran.
+     * Explicit requests such as {@link CpsStepContext#saveState} are not throttled.
+     *
+     * A nonzero value means that after a crash the program may resume from a state older than the last steps it ran,
+     * so only use this for pipelines known to tolerate that.
+     */
+    @Restricted(NoExternalUse.class)
+    public static long CHECKPOINT_INTERVAL = Long.getLong(CpsThreadGroup.class.getName() + ".checkpointInterval", 0);
+
+    /**
+     * If true, the program state is only saved after it ran once every thread is waiting on a step,
+     * rather than also in between.
+     */
+    @Restricted(NoExternalUse.class)
+    public static boolean CHECKPOINT_AT_STEPS_ONLY = Boolean.getBoolean(CpsThreadGroup.class.getName() + ".checkpointAtStepsOnly");
+
     private static final Logger LOGGER = Logger.getLogger(CpsThreadGroup.class.getName());
 
     private static final long serialVersionUID = 1L;
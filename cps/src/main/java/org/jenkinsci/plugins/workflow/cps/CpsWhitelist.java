@@ -17,7 +17,7 @@ import java.util.Collections;
  * @author Kohsuke Kawaguchi
  */
 class CpsWhitelist extends AbstractWhitelist {
-    private CpsWhitelist() {}
+    CpsWhitelist() {}
 
     @Override
     public boolean permitsMethod(Method method, Object receiver, Object[] args) {
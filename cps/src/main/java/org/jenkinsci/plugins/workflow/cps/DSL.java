@@ -58,7 +58,7 @@ import java.util.TreeMap;
 
 import static org.jenkinsci.plugins.workflow.cps.ThreadTaskResult.*;
 import static org.jenkinsci.plugins.workflow.cps.persistence.PersistenceContext.*;
-import org.kohsuke.stapler.ClassDescriptor;
+import org.jenkinsci.plugins.workflow.structs.DescribableHelper;
 
 /**
  * Scaffolding to experiment with the call into {@link Step}.
@@ -279,7 +279,7 @@ public class DSL extends GroovyObjectSupport implements Serializable {
         return new NamedArgsAndClosure(singleParam(d, arg), null);
     }
     private static Map<String,Object> singleParam(StepDescriptor d, Object arg) {
-        String[] names = new ClassDescriptor(d.clazz).loadConstructorParamNames();
+        String[] names = DescribableHelper.getConstructorParamNames(d.clazz);
         if (names.length == 1) {
             return Collections.singletonMap(names[0], arg);
         } else {
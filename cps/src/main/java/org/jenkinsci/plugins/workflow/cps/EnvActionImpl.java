@@ -27,6 +27,7 @@ package org.jenkinsci.plugins.workflow.cps;
 import groovy.lang.GroovyObjectSupport;
 import hudson.EnvVars;
 import hudson.model.Computer;
+import hudson.model.Queue;
 import hudson.model.Run;
 import hudson.util.LogTaskListener;
 import java.io.IOException;
@@ -38,7 +39,10 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import jenkins.model.RunAction2;
 import org.jenkinsci.plugins.workflow.support.DefaultStepContext;
+import org.jenkinsci.plugins.workflow.support.LayeredEnvironment;
 import org.jenkinsci.plugins.workflow.support.actions.EnvironmentAction;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.export.Exported;
 import org.kohsuke.stapler.export.ExportedBean;
 
@@ -48,31 +52,50 @@ public class EnvActionImpl extends GroovyObjectSupport implements EnvironmentAct
     private static final Logger LOGGER = Logger.getLogger(EnvActionImpl.class.getName());
     private static final long serialVersionUID = 1;
 
+    /**
+     * If true, {@link #setProperty} saves the build right away, rather than at the next program checkpoint.
+     */
+    @Restricted(NoExternalUse.class)
+    public static boolean SAVE_IMMEDIATELY = Boolean.getBoolean(EnvActionImpl.class.getName() + ".saveImmediately");
+
     private final Map<String,String> env;
-    private transient EnvVars ownerEnvironment; // cache
+    /** the build environment with {@link #env} on top; cleared when unknown */
+    private transient volatile LayeredEnvironment snapshot;
+    /** whether {@link #env} has changed since {@link #owner} was last saved */
+    private transient volatile boolean dirty;
     private transient Run<?,?> owner;
 
     EnvActionImpl() {
         this.env = new TreeMap<String,String>();
     }
 
-    @Override public EnvVars getEnvironment() throws IOException, InterruptedException {
-        if (ownerEnvironment == null) {
-            ownerEnvironment = DefaultStepContext.getEnvironment(owner, new LogTaskListener(LOGGER, Level.INFO));
+    private LayeredEnvironment snapshot() throws IOException, InterruptedException {
+        LayeredEnvironment s = snapshot;
+        if (s == null) {
+            LayeredEnvironment base = LayeredEnvironment.of(DefaultStepContext.getEnvironment(owner, new LogTaskListener(LOGGER, Level.INFO)));
+            synchronized (this) {
+                s = snapshot;
+                if (s == null) {
+                    s = base.with(env);
+                    snapshot = s;
+                }
+            }
         }
-        EnvVars e = new EnvVars(ownerEnvironment);
-        e.putAll(env);
-        return e;
+        return s;
+    }
+
+    @Override public EnvVars getEnvironment() throws IOException, InterruptedException {
+        return snapshot().toEnvVars();
     }
 
     @Exported(name="environment")
-    public Map<String,String> getOverriddenEnvironment() {
-        return Collections.unmodifiableMap(env);
+    public synchronized Map<String,String> getOverriddenEnvironment() {
+        return Collections.unmodifiableMap(new TreeMap<String,String>(env));
     }
 
     @Override public Object getProperty(String propertyName) {
         try {
-            String val = getEnvironment().get(propertyName);
+            String val = snapshot().get(propertyName);
             if (val == null) {
                 Computer computer = CpsThread.current().getContextVariable(Computer.class);
                 if (computer != null) {
@@ -87,11 +110,54 @@ public class EnvActionImpl extends GroovyObjectSupport implements EnvironmentAct
     }
 
     @Override public void setProperty(String propertyName, Object newValue) {
-        env.put(propertyName, String.valueOf(newValue));
+        String value = String.valueOf(newValue);
+        synchronized (this) {
+            env.put(propertyName, value);
+            LayeredEnvironment s = snapshot;
+            if (s != null) {
+                snapshot = s.with(propertyName, value);
+            }
+            dirty = true;
+        }
+        if (SAVE_IMMEDIATELY) {
+            try {
+                saveIfDirty();
+            } catch (IOException x) {
+                throw new RuntimeException(x);
+            }
+        }
+    }
+
+    /**
+     * Saves the build if any variable has been set since it was last saved.
+     */
+    void saveIfDirty() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
         try {
             owner.save();
         } catch (IOException x) {
-            throw new RuntimeException(x);
+            dirty = true;
+            throw x;
+        }
+    }
+
+    /**
+     * Called when the program is saved, so that variables set by the script are persisted along with it.
+     */
+    static void saveIfDirty(CpsFlowExecution execution) {
+        try {
+            Queue.Executable qe = execution.getOwner().getExecutable();
+            if (qe instanceof Run) {
+                EnvActionImpl action = ((Run<?,?>) qe).getAction(EnvActionImpl.class);
+                if (action != null) {
+                    action.saveIfDirty();
+                }
+            }
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, "failed to save environment variables of " + execution, x);
         }
     }
 
@@ -109,10 +175,12 @@ public class EnvActionImpl extends GroovyObjectSupport implements EnvironmentAct
 
     @Override public void onAttached(Run<?,?> r) {
         owner = r;
+        snapshot = null;
     }
 
     @Override public void onLoad(Run<?,?> r) {
         owner = r;
+        snapshot = null;
     }
 
 }
@@ -0,0 +1,197 @@
+package org.jenkinsci.plugins.workflow.cps;
+
+import groovy.lang.GroovyClassLoader;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.scriptsecurity.sandbox.Whitelist;
+import org.jenkinsci.plugins.scriptsecurity.sandbox.whitelists.ProxyWhitelist;
+import org.jenkinsci.plugins.scriptsecurity.scripts.ScriptApproval;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.CheckForNull;
+
+/**
+ * Whitelist used by {@link SandboxContinuable}, composed once per {@link CpsFlowExecution} rather than per chunk of work.
+ *
+ * <p>
+ * If {@link #MEMO} is on, it also remembers which members the installed whitelists have permitted,
+ * so that a script calling the same methods in a loop does not consult every {@link Whitelist} on each call.
+ * Only positive answers are remembered, keyed by member and receiver class, never by arguments;
+ * {@link CpsWhitelist}, which does look at arguments, is always consulted directly.
+ * So are the whitelists backed by {@link ScriptApproval}, whose answers change as approvals are granted or revoked,
+ * so the memo never needs to be invalidated.
+ */
+final class ExecutionWhitelist extends Whitelist {
+
+    /**
+     * Whether to remember permitted signatures.
+     * Assumes the installed whitelists decide by signature and receiver type only, as all the standard ones do.
+     */
+    @Restricted(NoExternalUse.class)
+    public static boolean MEMO = Boolean.getBoolean(ExecutionWhitelist.class.getName() + ".memo");
+
+    private final GroovyClassLoader loader;
+    private final Whitelist cps = new CpsWhitelist();
+    /** everything but {@link #cps}, used if {@link #MEMO} is off */
+    private final Whitelist rest;
+    /** whitelists reflecting {@link ScriptApproval}, never memoized */
+    private final Whitelist approvals;
+    /** all other whitelists, whose positive answers are memoized */
+    private final Whitelist stable;
+    private final Set<Key> permitted = Collections.newSetFromMap(new ConcurrentHashMap<Key,Boolean>());
+
+    ExecutionWhitelist(GroovyClassLoader loader) {
+        this.loader = loader;
+        GroovyClassLoaderWhitelist scripts = new GroovyClassLoaderWhitelist(loader);
+        this.rest = new ProxyWhitelist(scripts, Whitelist.all());
+        List<Whitelist> approvalList = new ArrayList<Whitelist>();
+        List<Whitelist> stableList = new ArrayList<Whitelist>();
+        stableList.add(scripts);
+        Jenkins j = Jenkins.getInstance();
+        if (j != null) {
+            for (Whitelist w : j.getExtensionList(Whitelist.class)) {
+                if (w.getClass().getName().startsWith(ScriptApproval.class.getName() + '$')) {
+                    approvalList.add(w);
+                } else {
+                    stableList.add(w);
+                }
+            }
+        }
+        this.approvals = new ProxyWhitelist(approvalList);
+        this.stable = new ProxyWhitelist(stableList);
+    }
+
+    /**
+     * Whether this was made for the given script class loader, which changes when a build resumes.
+     */
+    boolean isFor(GroovyClassLoader loader) {
+        return this.loader == loader;
+    }
+
+    /**
+     * Number of remembered signatures.
+     */
+    int getMemoSize() {
+        return permitted.size();
+    }
+
+    private boolean remember(Key key, boolean result) {
+        if (result) {
+            permitted.add(key);
+        }
+        return result;
+    }
+
+    @Override public boolean permitsMethod(Method method, Object receiver, Object[] args) {
+        if (cps.permitsMethod(method, receiver, args)) {
+            return true;
+        }
+        if (!MEMO) {
+            return rest.permitsMethod(method, receiver, args);
+        }
+        Key key = new Key(Key.METHOD, method, receiver == null ? null : receiver.getClass());
+        return permitted.contains(key) || approvals.permitsMethod(method, receiver, args) || remember(key, stable.permitsMethod(method, receiver, args));
+    }
+
+    @Override public boolean permitsConstructor(Constructor<?> constructor, Object[] args) {
+        if (cps.permitsConstructor(constructor, args)) {
+            return true;
+        }
+        if (!MEMO) {
+            return rest.permitsConstructor(constructor, args);
+        }
+        Key key = new Key(Key.CONSTRUCTOR, constructor, null);
+        return permitted.contains(key) || approvals.permitsConstructor(constructor, args) || remember(key, stable.permitsConstructor(constructor, args));
+    }
+
+    @Override public boolean permitsStaticMethod(Method method, Object[] args) {
+        if (cps.permitsStaticMethod(method, args)) {
+            return true;
+        }
+        if (!MEMO) {
+            return rest.permitsStaticMethod(method, args);
+        }
+        Key key = new Key(Key.STATIC_METHOD, method, null);
+        return permitted.contains(key) || approvals.permitsStaticMethod(method, args) || remember(key, stable.permitsStaticMethod(method, args));
+    }
+
+    @Override public boolean permitsFieldGet(Field field, Object receiver) {
+        if (cps.permitsFieldGet(field, receiver)) {
+            return true;
+        }
+        if (!MEMO) {
+            return rest.permitsFieldGet(field, receiver);
+        }
+        Key key = new Key(Key.FIELD_GET, field, receiver == null ? null : receiver.getClass());
+        return permitted.contains(key) || approvals.permitsFieldGet(field, receiver) || remember(key, stable.permitsFieldGet(field, receiver));
+    }
+
+    @Override public boolean permitsFieldSet(Field field, Object receiver, Object value) {
+        if (cps.permitsFieldSet(field, receiver, value)) {
+            return true;
+        }
+        if (!MEMO) {
+            return rest.permitsFieldSet(field, receiver, value);
+        }
+        Key key = new Key(Key.FIELD_SET, field, receiver == null ? null : receiver.getClass());
+        return permitted.contains(key) || approvals.permitsFieldSet(field, receiver, value) || remember(key, stable.permitsFieldSet(field, receiver, value));
+    }
+
+    @Override public boolean permitsStaticFieldGet(Field field) {
+        if (cps.permitsStaticFieldGet(field)) {
+            return true;
+        }
+        if (!MEMO) {
+            return rest.permitsStaticFieldGet(field);
+        }
+        Key key = new Key(Key.STATIC_FIELD_GET, field, null);
+        return permitted.contains(key) || approvals.permitsStaticFieldGet(field) || remember(key, stable.permitsStaticFieldGet(field));
+    }
+
+    @Override public boolean permitsStaticFieldSet(Field field, Object value) {
+        if (cps.permitsStaticFieldSet(field, value)) {
+            return true;
+        }
+        if (!MEMO) {
+            return rest.permitsStaticFieldSet(field, value);
+        }
+        Key key = new Key(Key.STATIC_FIELD_SET, field, null);
+        return permitted.contains(key) || approvals.permitsStaticFieldSet(field, value) || remember(key, stable.permitsStaticFieldSet(field, value));
+    }
+
+    private static final class Key {
+        static final int METHOD = 0, CONSTRUCTOR = 1, STATIC_METHOD = 2, FIELD_GET = 3, FIELD_SET = 4, STATIC_FIELD_GET = 5, STATIC_FIELD_SET = 6;
+
+        private final int kind;
+        private final Member member;
+        private final @CheckForNull Class<?> receiver;
+
+        Key(int kind, Member member, @CheckForNull Class<?> receiver) {
+            this.kind = kind;
+            this.member = member;
+            this.receiver = receiver;
+        }
+
+        @Override public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return kind == k.kind && member.equals(k.member) && receiver == k.receiver;
+        }
+
+        @Override public int hashCode() {
+            return (kind * 31 + member.hashCode()) * 31 + (receiver == null ? 0 : receiver.hashCode());
+        }
+    }
+
+}
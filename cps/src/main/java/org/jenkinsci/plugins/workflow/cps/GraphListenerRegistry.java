@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.workflow.cps;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.annotation.concurrent.GuardedBy;
+import org.jenkinsci.plugins.workflow.flow.GraphListener;
+import org.jenkinsci.plugins.workflow.graph.FlowEndNode;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+
+/**
+ * {@link GraphListener}s of a {@link CpsFlowExecution}.
+ *
+ * <p>
+ * Listeners interested in every new head are kept in one list, which in practice stays short.
+ * Listeners watching a particular node are indexed by its ID instead, and only called once a new head
+ * lists that node among its parents, which is when it stops being a current head.
+ * That way the per-step listeners used to close step logs cost nothing for the rest of the build.
+ */
+final class GraphListenerRegistry {
+
+    private final List<GraphListener> global = new CopyOnWriteArrayList<GraphListener>();
+
+    @GuardedBy("this")
+    private final Map<String,List<GraphListener>> byNode = new HashMap<String,List<GraphListener>>();
+
+    /** Reverse of {@link #byNode}, so that removal does not need to look through all nodes. */
+    @GuardedBy("this")
+    private final Map<GraphListener,String> watching = new IdentityHashMap<GraphListener,String>();
+
+    void add(GraphListener listener) {
+        global.add(listener);
+    }
+
+    synchronized void add(String nodeId, GraphListener listener) {
+        List<GraphListener> l = byNode.get(nodeId);
+        if (l == null) {
+            l = new ArrayList<GraphListener>(1);
+            byNode.put(nodeId, l);
+        }
+        l.add(listener);
+        watching.put(listener, nodeId);
+    }
+
+    void remove(GraphListener listener) {
+        if (global.remove(listener)) {
+            return;
+        }
+        synchronized (this) {
+            String nodeId = watching.remove(listener);
+            if (nodeId != null) {
+                List<GraphListener> l = byNode.get(nodeId);
+                l.remove(listener);
+                if (l.isEmpty()) {
+                    byNode.remove(nodeId);
+                }
+            }
+        }
+    }
+
+    void notify(FlowNode head) {
+        for (GraphListener listener : global) {
+            listener.onNewHead(head);
+        }
+        List<GraphListener> watchers = Collections.emptyList();
+        synchronized (this) {
+            if (watching.isEmpty()) {
+                return;
+            }
+            if (head instanceof FlowEndNode) {
+                // whatever is still watched has stopped running by now
+                watchers = new ArrayList<GraphListener>(watching.keySet());
+            } else {
+                for (FlowNode parent : head.getParents()) {
+                    List<GraphListener> l = byNode.get(parent.getId());
+                    if (l != null) {
+                        if (watchers.isEmpty()) {
+                            watchers = new ArrayList<GraphListener>(l);
+                        } else {
+                            watchers.addAll(l);
+                        }
+                    }
+                }
+            }
+        }
+        // called outside the lock, as listeners typically remove themselves
+        for (GraphListener listener : watchers) {
+            listener.onNewHead(head);
+        }
+    }
+
+    /**
+     * Number of listeners currently registered, whether global or watching a node.
+     */
+    synchronized int size() {
+        return global.size() + watching.size();
+    }
+
+}
@@ -19,6 +19,10 @@ public abstract class GroovyShellDecorator implements ExtensionPoint {
     /**
      * Called with {@link ImportCustomizer} to auto-import more packages, etc.
      *
+     * <p>
+     * If {@link CompiledScriptCache} is enabled, a script compiled for one execution may be reused by another,
+     * so what this adds must be the same for every execution, other than depending on {@link CpsFlowExecution#isSandbox}.
+     *
      * @param context
      *      null if {@link GroovyShell} is created just to test the parsing of the script.
      */
@@ -27,6 +31,9 @@ public abstract class GroovyShellDecorator implements ExtensionPoint {
     /**
      * Called with {@link CompilerConfiguration} to provide opportunity to tweak the runtime environment further.
      *
+     * <p>
+     * As with {@link #customizeImports}, this must not vary per execution if {@link CompiledScriptCache} is enabled.
+     *
      * @param context
      *      null if {@link GroovyShell} is created just to test the parsing of the script.
      */
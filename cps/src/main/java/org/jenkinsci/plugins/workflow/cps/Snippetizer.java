@@ -41,10 +41,10 @@ import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
 import org.jenkinsci.plugins.workflow.steps.Step;
 import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.structs.DescribableHelper;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.DoNotUse;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
-import org.kohsuke.stapler.ClassDescriptor;
 import org.kohsuke.stapler.HttpResponse;
 import org.kohsuke.stapler.HttpResponses;
 import org.kohsuke.stapler.QueryParameter;
@@ -100,7 +100,7 @@ import org.kohsuke.stapler.StaplerResponse;
     }
 
     private static boolean isDefaultKey(Step step, String key) {
-        String[] names = new ClassDescriptor(step.getClass()).loadConstructorParamNames();
+        String[] names = DescribableHelper.getConstructorParamNames(step.getClass());
         return names.length == 1 && key.equals(names[0]);
     }
 
@@ -0,0 +1,74 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.workflow.cps;
+
+import groovy.lang.GroovyClassLoader;
+import java.io.File;
+import java.lang.reflect.Method;
+import org.jenkinsci.plugins.scriptsecurity.scripts.ScriptApproval;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.mockito.Mockito;
+
+public class ExecutionWhitelistTest {
+
+    @ClassRule public static JenkinsRule r = new JenkinsRule();
+
+    @Before public void memo() {
+        ExecutionWhitelist.MEMO = true;
+    }
+
+    @After public void noMemo() {
+        ExecutionWhitelist.MEMO = false;
+    }
+
+    @Test public void revokedApprovalTakesEffect() throws Exception {
+        ExecutionWhitelist w = new ExecutionWhitelist(new GroovyClassLoader());
+        Method getName = File.class.getMethod("getName");
+        File f = new File("x");
+        assertFalse(w.permitsMethod(getName, f, new Object[0]));
+        ScriptApproval.get().approveSignature("method java.io.File getName");
+        assertTrue(w.permitsMethod(getName, f, new Object[0]));
+        assertTrue(w.permitsMethod(getName, f, new Object[0]));
+        ScriptApproval.get().clearApprovedSignatures();
+        assertFalse(w.permitsMethod(getName, f, new Object[0]));
+    }
+
+    @Test public void cpsWhitelistSeesArguments() throws Exception {
+        ExecutionWhitelist w = new ExecutionWhitelist(new GroovyClassLoader());
+        Method getProperty = CpsScript.class.getMethod("getProperty", String.class);
+        CpsScript script = Mockito.mock(CpsScript.class);
+        assertTrue(w.permitsMethod(getProperty, script, new Object[] {"env"}));
+        // a permitted call with other arguments must not be remembered for this one
+        assertFalse(w.permitsMethod(getProperty, script, new Object[] {"somethingElse"}));
+        assertTrue(w.permitsMethod(getProperty, script, new Object[] {"env"}));
+        assertEquals(0, w.getMemoSize());
+    }
+
+}
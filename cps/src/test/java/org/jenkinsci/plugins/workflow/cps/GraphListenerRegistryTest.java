@@ -0,0 +1,101 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.workflow.cps;
+
+import hudson.model.Result;
+import java.util.ArrayList;
+import java.util.List;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.flow.GraphListener;
+import org.jenkinsci.plugins.workflow.graph.AtomNode;
+import org.jenkinsci.plugins.workflow.graph.FlowEndNode;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.graph.FlowStartNode;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class GraphListenerRegistryTest {
+
+    @Test public void dispatchByNode() {
+        FlowExecution exec = Mockito.mock(FlowExecution.class);
+        FlowStartNode start = new FlowStartNode(exec, "2");
+        FlowNode a = new TestNode(exec, "3", start);
+        FlowNode b = new TestNode(exec, "4", a);
+        FlowNode c = new TestNode(exec, "5", b);
+        GraphListenerRegistry registry = new GraphListenerRegistry();
+        Recorder all = new Recorder(registry, false);
+        Recorder watchA = new Recorder(registry, true);
+        Recorder watchC = new Recorder(registry, true);
+        registry.add(all);
+        registry.add("3", watchA);
+        registry.add("5", watchC);
+        assertEquals(3, registry.size());
+
+        registry.notify(a);
+        assertEquals(0, watchA.heads.size());
+        registry.notify(b);
+        assertEquals(1, watchA.heads.size());
+        assertEquals(2, registry.size()); // watchA removed itself
+        registry.notify(c);
+        assertEquals(1, watchA.heads.size());
+        assertEquals(0, watchC.heads.size());
+        assertEquals(3, all.heads.size());
+
+        registry.notify(new FlowEndNode(exec, "6", start, Result.SUCCESS, b));
+        assertEquals(1, watchC.heads.size());
+        assertEquals(4, all.heads.size());
+        registry.remove(all);
+        assertEquals(0, registry.size());
+    }
+
+    private static final class Recorder implements GraphListener {
+        final GraphListenerRegistry registry;
+        final boolean once;
+        final List<FlowNode> heads = new ArrayList<FlowNode>();
+
+        Recorder(GraphListenerRegistry registry, boolean once) {
+            this.registry = registry;
+            this.once = once;
+        }
+
+        @Override public void onNewHead(FlowNode node) {
+            heads.add(node);
+            if (once) {
+                registry.remove(this);
+            }
+        }
+    }
+
+    private static final class TestNode extends AtomNode {
+        TestNode(FlowExecution exec, String id, FlowNode... parents) {
+            super(exec, id, parents);
+        }
+        @Override protected String getTypeDisplayName() {
+            return "test";
+        }
+    }
+
+}
@@ -0,0 +1,317 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.workflow.steps.durable_task;
+
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import jenkins.security.MasterToSlaveCallable;
+import jenkins.util.Timer;
+import org.jenkinsci.plugins.durabletask.Controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Polls all running {@link DurableTaskStep.Execution}s of an agent at once.
+ *
+ * <p>
+ * Rather than each task scheduling its own timer and making several remote calls per check,
+ * tasks register here by node, and on every tick a single call per agent checks the exit status
+ * and collects the new output of all its tasks, which is then handed back to each execution.
+ *
+ * <p>
+ * Checks run on a small pool of their own, since they block for as long as {@link #TIMEOUT} waiting on slow agents,
+ * and {@link Timer} only triggers them. The tick is cancelled whenever no tasks are left.
+ */
+final class DurableTaskPoller {
+
+    private static final Logger LOGGER = Logger.getLogger(DurableTaskPoller.class.getName());
+
+    /** Tasks by node name; entries are removed once their node has no tasks left. */
+    @GuardedBy("tasks")
+    private static final Map<String,NodeTasks> tasks = new HashMap<String,NodeTasks>();
+
+    /** The periodic {@link #tick}, or null while there is nothing to poll. */
+    @GuardedBy("tasks")
+    private static ScheduledFuture<?> ticking;
+
+    /**
+     * Maximum number of agents checked at the same time.
+     */
+    private static final int THREADS = Integer.getInteger(DurableTaskPoller.class.getName() + ".threads", 10);
+
+    private static final ThreadPoolExecutor POOL = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new NamingThreadFactory(new DaemonThreadFactory(), "DurableTaskPoller"));
+    static {
+        POOL.allowCoreThreadTimeOut(true);
+    }
+
+    private DurableTaskPoller() {}
+
+    /**
+     * Starts polling a task along with the others on its node, until it ends or is stopped.
+     */
+    static void register(DurableTaskStep.Execution execution) {
+        String node = execution.getNode();
+        synchronized (tasks) {
+            NodeTasks t = tasks.get(node);
+            if (t == null) {
+                t = new NodeTasks(node);
+                tasks.put(node, t);
+            }
+            t.add(execution);
+            if (ticking == null) {
+                ticking = Timer.get().scheduleWithFixedDelay(new Runnable() {
+                    @Override public void run() {
+                        tick();
+                    }
+                }, INTERVAL, INTERVAL, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private static void tick() {
+        synchronized (tasks) {
+            for (Iterator<NodeTasks> it = tasks.values().iterator(); it.hasNext(); ) {
+                NodeTasks t = it.next();
+                if (t.running.get()) {
+                    continue;
+                }
+                if (t.current().isEmpty()) {
+                    // only register adds tasks, and only tick starts checks, both under this lock
+                    it.remove();
+                    continue;
+                }
+                t.running.set(true);
+                // one at a time per agent, but agents do not wait for one another
+                POOL.submit(t);
+            }
+            if (tasks.isEmpty() && ticking != null) {
+                ticking.cancel(false);
+                ticking = null;
+            }
+        }
+    }
+
+    /**
+     * Whether anything is being polled, for tests.
+     */
+    static boolean isPolling() {
+        synchronized (tasks) {
+            return ticking != null;
+        }
+    }
+
+    /**
+     * The tasks running on one node.
+     */
+    private static final class NodeTasks implements Runnable {
+        private final String node;
+        @GuardedBy("this")
+        private final Set<DurableTaskStep.Execution> executions = new LinkedHashSet<DurableTaskStep.Execution>();
+        /** Whether a check of this node is in progress. */
+        final AtomicBoolean running = new AtomicBoolean();
+
+        NodeTasks(String node) {
+            this.node = node;
+        }
+
+        synchronized void add(DurableTaskStep.Execution execution) {
+            executions.add(execution);
+        }
+
+        /**
+         * Drops finished tasks and takes a snapshot of the others.
+         */
+        synchronized List<DurableTaskStep.Execution> current() {
+            List<DurableTaskStep.Execution> result = new ArrayList<DurableTaskStep.Execution>(executions.size());
+            for (Iterator<DurableTaskStep.Execution> it = executions.iterator(); it.hasNext(); ) {
+                DurableTaskStep.Execution e = it.next();
+                if (e.isFinished()) {
+                    it.remove();
+                } else {
+                    result.add(e);
+                }
+            }
+            return result;
+        }
+
+        @Override public void run() {
+            try {
+                check();
+            } finally {
+                running.set(false);
+            }
+        }
+
+        private void check() {
+            List<DurableTaskStep.Execution> current = current();
+            if (current.isEmpty()) {
+                return;
+            }
+            VirtualChannel channel = getChannel();
+            if (channel == null) {
+                return; // agent not yet ready, wait for another day
+            }
+            List<Check> checks = new ArrayList<Check>(current.size());
+            for (DurableTaskStep.Execution e : current) {
+                checks.add(new Check(e.getController(), e.getRemote()));
+            }
+            List<Status> statuses;
+            try {
+                statuses = channel.callAsync(new CheckAll(checks)).get(TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (Exception x) {
+                // RequestAbortedException, ChannelClosedException, TimeoutException, wrappers thereof...
+                LOGGER.log(Level.FINE, "could not check tasks on " + node, x);
+                return;
+            }
+            for (int i = 0; i < statuses.size(); i++) {
+                DurableTaskStep.Execution e = current.get(i);
+                try {
+                    e.update(statuses.get(i));
+                } catch (Exception x) {
+                    LOGGER.log(Level.WARNING, "could not update " + e, x);
+                }
+            }
+        }
+
+        private @CheckForNull VirtualChannel getChannel() {
+            Jenkins j = Jenkins.getInstance();
+            if (j == null) {
+                return null;
+            }
+            Computer c = j.getComputer(node);
+            if (c == null || c.isOffline()) {
+                LOGGER.log(Level.FINE, "{0} is offline", node);
+                return null;
+            }
+            return c.getChannel();
+        }
+    }
+
+    /**
+     * What to check for one task.
+     */
+    private static final class Check implements Serializable {
+        final Controller controller;
+        final String remote;
+
+        Check(Controller controller, String remote) {
+            this.controller = controller;
+            this.remote = remote;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * What was found for one task.
+     */
+    static final class Status implements Serializable {
+        /** True if the workspace is gone, in which case nothing else is set. */
+        boolean missing;
+        /** New output, if any. */
+        @CheckForNull byte[] output;
+        /** The controller, updated to reflect how much of the output was copied. */
+        Controller controller;
+        /** Set once the task has ended. */
+        @CheckForNull Integer exitCode;
+        /** Set if the task could not be checked this time. */
+        @CheckForNull IOException error;
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Runs on the agent and checks all the given tasks.
+     */
+    private static final class CheckAll extends MasterToSlaveCallable<List<Status>,InterruptedException> {
+        private final List<Check> checks;
+
+        CheckAll(List<Check> checks) {
+            this.checks = checks;
+        }
+
+        @Override public List<Status> call() throws InterruptedException {
+            List<Status> statuses = new ArrayList<Status>(checks.size());
+            for (Check check : checks) {
+                Status status = new Status();
+                status.controller = check.controller;
+                try {
+                    FilePath workspace = new FilePath(new File(check.remote));
+                    if (!workspace.isDirectory()) {
+                        status.missing = true;
+                    } else {
+                        // check the status first, so that once it is known we are sure to have copied all the output
+                        status.exitCode = check.controller.exitStatus(workspace);
+                        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                        if (check.controller.writeLog(workspace, buf)) {
+                            status.output = buf.toByteArray();
+                        }
+                    }
+                } catch (IOException x) {
+                    status.error = x;
+                }
+                statuses.add(status);
+            }
+            return statuses;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * How often, in milliseconds, all tasks are checked.
+     */
+    private static final long INTERVAL = 1000;
+
+    /**
+     * How long, in milliseconds, to wait for one agent to check all its tasks.
+     */
+    private static final long TIMEOUT = 30000;
+
+}
@@ -31,6 +31,9 @@ import hudson.FilePath;
 import hudson.Launcher;
 import hudson.model.Computer;
 import hudson.model.TaskListener;
+import hudson.remoting.Channel;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
 import jenkins.model.Jenkins;
 import jenkins.util.Timer;
 import org.jenkinsci.plugins.durabletask.Controller;
@@ -44,7 +47,11 @@ import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 import javax.annotation.CheckForNull;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
@@ -86,6 +93,10 @@ public abstract class DurableTaskStep extends AbstractStepImpl {
         private Controller controller;
         private String node;
         private String remote;
+        /** If the agent is pushing output and exit status to us, the call doing that. */
+        private transient @CheckForNull Future<Void> push;
+        /** Set once the task is known to have ended, so that it is only reported once. */
+        private transient boolean done;
 
         @Override public boolean start() throws Exception {
             Jenkins j = Jenkins.getInstance();
@@ -103,6 +114,9 @@ public abstract class DurableTaskStep extends AbstractStepImpl {
             }
             controller = step.task().launch(env, ws, launcher, listener);
             this.remote = ws.getRemote();
+            if (PUSH) {
+                startPush(ws);
+            }
             setupTimer();
             return false;
         }
@@ -156,7 +170,15 @@ public abstract class DurableTaskStep extends AbstractStepImpl {
         /** Checks for progress or completion of the external task. */
         @Override public void run() {
             try {
-                check();
+                if (!isPushing()) {
+                    if (BATCH) {
+                        // hand over to the poller from now on
+                        recurrencePeriod = 0;
+                        DurableTaskPoller.register(this);
+                    } else {
+                        check();
+                    }
+                }
             } finally {
                 if (recurrencePeriod > 0 && stopAttempt < 2) {
                     Timer.get().schedule(this, recurrencePeriod, TimeUnit.MILLISECONDS);
@@ -164,6 +186,87 @@ public abstract class DurableTaskStep extends AbstractStepImpl {
             }
         }
 
+        /**
+         * Whether the agent is still pushing updates, in which case polling is only a watchdog.
+         * Once the push stopped, say because the agent disconnected, we fall back to polling.
+         */
+        private synchronized boolean isPushing() {
+            if (done) {
+                recurrencePeriod = 0;
+                return true;
+            }
+            if (push == null) {
+                return false;
+            }
+            if (!push.isDone()) {
+                recurrencePeriod = MAX_RECURRENCE_PERIOD;
+                return true;
+            }
+            try {
+                push.get();
+            } catch (InterruptedException x) {
+                LOGGER.log(Level.FINE, "push from " + node + " interrupted", x);
+            } catch (ExecutionException x) {
+                LOGGER.log(Level.FINE, "push from " + node + " failed, falling back to polling", x);
+            }
+            push = null;
+            recurrencePeriod = MIN_RECURRENCE_PERIOD;
+            return false;
+        }
+
+        private void startPush(FilePath workspace) {
+            VirtualChannel channel = workspace.getChannel();
+            PushSink sink = new PushSinkImpl();
+            if (channel instanceof Channel) {
+                sink = ((Channel) channel).export(PushSink.class, sink);
+            }
+            try {
+                push = workspace.actAsync(new Pusher(controller, sink));
+            } catch (Exception x) {
+                LOGGER.log(Level.FINE, "could not start pushing from " + node + ", polling instead", x);
+            }
+        }
+
+        /**
+         * Reports the end of the task.
+         * @return false if it was already reported
+         */
+        private synchronized boolean finish(FilePath workspace, int exitCode) throws IOException, InterruptedException {
+            if (done) {
+                return false;
+            }
+            done = true;
+            recurrencePeriod = 0;
+            controller.cleanup(workspace);
+            if (exitCode == 0) {
+                getContext().onSuccess(exitCode);
+            } else {
+                getContext().onFailure(new AbortException("script returned exit code " + exitCode));
+            }
+            return true;
+        }
+
+        /** Receives updates from {@link Pusher}. */
+        private final class PushSinkImpl implements PushSink {
+            @Override public void output(byte[] data, Controller updated) {
+                synchronized (Execution.this) {
+                    listener.getLogger().write(data, 0, data.length);
+                    controller = updated;
+                }
+                getContext().saveState();
+            }
+            @Override public void exited(int exitCode, Controller updated) throws IOException, InterruptedException {
+                synchronized (Execution.this) {
+                    controller = updated;
+                }
+                FilePath workspace = getWorkspace();
+                if (workspace == null) {
+                    throw new IOException(node + " is offline");
+                }
+                finish(workspace, exitCode);
+            }
+        }
+
         private void check() {
             FilePath workspace;
             try {
@@ -197,13 +300,7 @@ public abstract class DurableTaskStep extends AbstractStepImpl {
                 if (exitCode == null) {
                     LOGGER.log(Level.FINE, "still running in {0} on {1}", new Object[] {remote, node});
                 } else {
-                    recurrencePeriod = 0;
-                    controller.cleanup(workspace);
-                    if (exitCode == 0) {
-                        getContext().onSuccess(exitCode);
-                    } else {
-                        getContext().onFailure(new AbortException("script returned exit code " + exitCode));
-                    }
+                    finish(workspace, exitCode);
                 }
             } catch (IOException x) {
                 LOGGER.log(Level.FINE, "could not check " + workspace, x);
@@ -223,11 +320,128 @@ public abstract class DurableTaskStep extends AbstractStepImpl {
 
         private void setupTimer() {
             recurrencePeriod = MIN_RECURRENCE_PERIOD;
-            Timer.get().schedule(this, recurrencePeriod, TimeUnit.MILLISECONDS);
+            if (BATCH && push == null) {
+                DurableTaskPoller.register(this);
+            } else {
+                Timer.get().schedule(this, recurrencePeriod, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        String getNode() {
+            return node;
+        }
+
+        String getRemote() {
+            return remote;
+        }
+
+        synchronized Controller getController() {
+            return controller;
+        }
+
+        /** Whether {@link DurableTaskPoller} can forget about this task. */
+        synchronized boolean isFinished() {
+            return done || stopAttempt >= 2;
+        }
+
+        /** Applies what {@link DurableTaskPoller} found. */
+        void update(DurableTaskPoller.Status status) throws IOException, InterruptedException {
+            if (status.error != null) {
+                LOGGER.log(Level.FINE, "could not check " + remote + " on " + node, status.error);
+                return;
+            }
+            if (status.missing) {
+                synchronized (this) {
+                    if (done) {
+                        return;
+                    }
+                    done = true;
+                }
+                getContext().onFailure(new AbortException("missing workspace " + remote + " on " + node));
+                return;
+            }
+            if (status.output != null) {
+                synchronized (this) {
+                    listener.getLogger().write(status.output, 0, status.output.length);
+                    controller = status.controller;
+                }
+                getContext().saveState();
+            }
+            if (status.exitCode != null) {
+                synchronized (this) {
+                    controller = status.controller;
+                }
+                FilePath workspace = getWorkspace();
+                if (workspace != null) {
+                    finish(workspace, status.exitCode);
+                }
+            }
         }
 
         private static final long serialVersionUID = 1L;
 
     }
 
+    /**
+     * Callback from the agent side of a durable task.
+     * Exported over the channel, so calls come back to the master.
+     */
+    @Restricted(NoExternalUse.class)
+    public interface PushSink {
+        /** Called with new output, along with the controller updated to record how far it got. */
+        void output(byte[] data, Controller updated);
+        /** Called once when the task has ended and all its output was sent. */
+        void exited(int exitCode, Controller updated) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Runs on the agent, watching a task locally and pushing what it finds to the master until the task ends.
+     */
+    private static final class Pusher extends MasterToSlaveFileCallable<Void> {
+        private final Controller controller;
+        private final PushSink sink;
+
+        Pusher(Controller controller, PushSink sink) {
+            this.controller = controller;
+            this.sink = sink;
+        }
+
+        @Override public Void invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            FilePath workspace = new FilePath(f);
+            while (true) {
+                // check the status first, so that once it is known we are sure to have copied all the output
+                Integer exitCode = controller.exitStatus(workspace);
+                ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                if (controller.writeLog(workspace, buf)) {
+                    sink.output(buf.toByteArray(), controller);
+                }
+                if (exitCode != null) {
+                    sink.exited(exitCode, controller);
+                    return null;
+                }
+                Thread.sleep(PUSH_INTERVAL);
+            }
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * If true, agents push output and exit status of new tasks as they happen, rather than the master polling for them.
+     */
+    @Restricted(NoExternalUse.class)
+    public static boolean PUSH = Boolean.getBoolean(DurableTaskStep.class.getName() + ".push");
+
+    /**
+     * If true, tasks not being pushed are checked by {@link DurableTaskPoller} along with the others on their agent,
+     * rather than each on its own timer.
+     */
+    @Restricted(NoExternalUse.class)
+    public static boolean BATCH = Boolean.getBoolean(DurableTaskStep.class.getName() + ".batch");
+
+    /**
+     * How often, in milliseconds, a pushing agent checks its tasks locally.
+     */
+    private static final long PUSH_INTERVAL = 250;
+
 }
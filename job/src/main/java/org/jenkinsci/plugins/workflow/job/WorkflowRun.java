@@ -45,20 +45,28 @@ import hudson.model.listeners.SCMListener;
 import hudson.scm.ChangeLogSet;
 import hudson.scm.SCM;
 import hudson.scm.SCMRevisionState;
+import hudson.util.AtomicFileWriter;
 import hudson.util.NullStream;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -77,6 +85,10 @@ import org.jenkinsci.plugins.workflow.flow.GraphListener;
 import org.jenkinsci.plugins.workflow.graph.FlowEndNode;
 import org.jenkinsci.plugins.workflow.graph.FlowNode;
 import org.jenkinsci.plugins.workflow.steps.FlowInterruptedException;
+import org.jenkinsci.plugins.workflow.support.actions.ConsolidatedLog;
+import org.jenkinsci.plugins.workflow.support.actions.LogAppendListener;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.HttpResponse;
 import org.kohsuke.stapler.HttpResponses;
 import org.kohsuke.stapler.export.Exported;
@@ -84,7 +96,7 @@ import org.kohsuke.stapler.interceptor.RequirePOST;
 
 @SuppressWarnings("SynchronizeOnNonFinalField")
 @edu.umd.cs.findbugs.annotations.SuppressWarnings("JLM_JSR166_UTILCONCURRENT_MONITORENTER") // completed is an unusual usage
-public final class WorkflowRun extends Run<WorkflowJob,WorkflowRun> implements Queue.Executable, LazyBuildMixIn.LazyLoadingRun<WorkflowJob,WorkflowRun> {
+public final class WorkflowRun extends Run<WorkflowJob,WorkflowRun> implements Queue.Executable, LazyBuildMixIn.LazyLoadingRun<WorkflowJob,WorkflowRun>, LogAppendListener, ConsolidatedLog.Provider {
 
     private static final Logger LOGGER = Logger.getLogger(WorkflowRun.class.getName());
 
@@ -105,8 +117,30 @@ public final class WorkflowRun extends Run<WorkflowJob,WorkflowRun> implements Q
     private transient AtomicBoolean completed;
     /** Jenkins instance in effect when {@link #waitForCompletion} was last called. */
     private transient Jenkins jenkins;
-    /** map from node IDs to log positions from which we should copy text */
-    private Map<String,Long> logsToCopy;
+    /**
+     * Map from node IDs to log positions from which we should copy text.
+     * Persisted in {@link #getLogOffsetsFile}; null once finished.
+     */
+    private transient Map<String,Long> logsToCopy;
+    /**
+     * IDs of nodes whose logs have been written to since they were last copied, in the order they were first written to.
+     * Synchronized on itself, briefly, so that {@link #onLogAppended} is never held up by copying.
+     */
+    private transient Set<String> logsUpdated;
+    /**
+     * Released to wake up {@link #waitForCompletion}.
+     * Unlike the monitor of {@link #completed}, which is held while copying, this never blocks the thread writing step output.
+     */
+    private transient Semaphore wakeup;
+    /** Whether {@link #logsToCopy} has changed since {@link #saveLogOffsets}. */
+    private transient boolean logOffsetsDirty;
+    /** {@link System#currentTimeMillis} of the last {@link #saveLogOffsets}. */
+    private transient long logOffsetsSaved;
+    /** Non-null if step output goes straight into the build log; see {@link #getConsolidatedLog}. */
+    private transient volatile ConsolidatedLog consolidatedLog;
+    /** @deprecated only read from builds started by older versions, which kept {@link #logsToCopy} in {@code build.xml} */
+    @Deprecated
+    private Map<String,Long> logsToCopyLegacy;
 
     List<SCMCheckout> checkouts;
     // TODO could use a WeakReference to reduce memory, but that complicates how we add to it incrementally; perhaps keep a List<WeakReference<ChangeLogSet<?>>>
@@ -151,7 +185,13 @@ public final class WorkflowRun extends Run<WorkflowJob,WorkflowRun> implements Q
         // Some code here copied from execute(RunExecution), but subsequently modified quite a bit.
         try {
             onStartBuilding();
-            OutputStream logger = new FileOutputStream(getLogFile());
+            OutputStream logger;
+            if (CONSOLIDATED_LOG) {
+                consolidatedLog = ConsolidatedLog.open(getLogFile(), getLogIndexFile(), false);
+                logger = consolidatedLog.writer(null);
+            } else {
+                logger = new FileOutputStream(getLogFile());
+            }
             listener = new StreamBuildListener(logger, Charset.defaultCharset());
             listener.started(getCauses());
             RunListener.fireStarted(this, listener);
@@ -167,7 +207,9 @@ public final class WorkflowRun extends Run<WorkflowJob,WorkflowRun> implements Q
             FlowExecutionList.get().register(owner);
             execution.addListener(new GraphL());
             completed = new AtomicBoolean();
+            wakeup = new Semaphore(0);
             logsToCopy = new LinkedHashMap<String,Long>();
+            logsUpdated = Collections.synchronizedSet(new LinkedHashSet<String>());
             execution.start();
             executionPromise.set(execution);
             waitForCompletion();
@@ -183,96 +225,204 @@ public final class WorkflowRun extends Run<WorkflowJob,WorkflowRun> implements Q
     }
 
     /**
-     * Sleeps until the run is finished, updating log messages periodically.
+     * Sleeps until the run is finished, copying step logs as they get written to.
      */
     void waitForCompletion() {
         jenkins = Jenkins.getInstance();
-        synchronized (completed) {
-            while (!completed.get()) {
-                if (jenkins == null || jenkins.isTerminating()) {
-                    LOGGER.log(Level.FINE, "shutting down, breaking waitForCompletion on {0}", this);
+        while (!completed.get()) {
+            if (jenkins == null || jenkins.isTerminating()) {
+                LOGGER.log(Level.FINE, "shutting down, breaking waitForCompletion on {0}", this);
+                synchronized (completed) {
+                    // whatever was copied so far, so that copying resumes from there
+                    saveLogOffsetsIfDirty(true);
                     // Stop writing content, in case a new set of objects gets loaded after in-VM restart and starts writing to the same file:
                     listener.closeQuietly();
                     listener = new StreamBuildListener(new NullStream());
-                    break;
                 }
+                break;
+            }
+            try {
+                if (logsUpdated.isEmpty()) {
+                    // woken up by onLogAppended or finish; the timeout is only so we notice Jenkins shutting down
+                    wakeup.tryAcquire(1, TimeUnit.SECONDS);
+                }
+                wakeup.drainPermits();
+            } catch (InterruptedException x) {
                 try {
-                    completed.wait(1000);
-                } catch (InterruptedException x) {
-                    try {
-                        execution.interrupt(Result.ABORTED);
-                    } catch (Exception x2) {
-                        LOGGER.log(Level.WARNING, null, x2);
-                    }
-                    Executor exec = Executor.currentExecutor();
-                    if (exec != null) {
-                        exec.recordCauseOfInterruption(this, listener);
-                    }
+                    execution.interrupt(Result.ABORTED);
+                } catch (Exception x2) {
+                    LOGGER.log(Level.WARNING, null, x2);
                 }
-                copyLogs();
+                Executor exec = Executor.currentExecutor();
+                if (exec != null) {
+                    exec.recordCauseOfInterruption(this, listener);
+                }
+            }
+            synchronized (completed) {
+                copyLogs(MAX_LOGS_PER_COPY);
             }
         }
     }
 
+    @Override public void onLogAppended(FlowNode node) {
+        Set<String> updated = logsUpdated;
+        Semaphore w = wakeup;
+        if (updated != null && w != null && updated.add(node.getId())) {
+            w.release();
+        }
+    }
+
+    /**
+     * Copies new text from the logs of nodes which have been written to, in the order they were written to.
+     * @param max the maximum number of nodes to process this time; any others are left for a later call
+     */
     @GuardedBy("completed")
-    private void copyLogs() {
+    private void copyLogs(int max) {
         if (logsToCopy == null) { // finished
             return;
         }
-        Iterator<Map.Entry<String,Long>> it = logsToCopy.entrySet().iterator();
+        List<String> ids = new ArrayList<String>();
+        synchronized (logsUpdated) {
+            Iterator<String> it = logsUpdated.iterator();
+            while (it.hasNext() && ids.size() < max) {
+                ids.add(it.next());
+                // anything written from now on will put it back
+                it.remove();
+            }
+        }
         boolean modified = false;
-        while (it.hasNext()) {
-            Map.Entry<String,Long> entry = it.next();
+        for (String id : ids) {
+            Long offset = logsToCopy.get(id);
+            if (offset == null) {
+                offset = 0L;
+            }
             FlowNode node;
             try {
-                node = execution.getNode(entry.getKey());
+                node = execution.getNode(id);
             } catch (IOException x) {
                 LOGGER.log(Level.WARNING, null, x);
-                it.remove();
-                modified = true;
+                modified |= logsToCopy.remove(id) != null;
                 continue;
             }
             if (node == null) {
-                LOGGER.log(Level.WARNING, "no such node {0}", entry.getKey());
-                it.remove();
-                modified = true;
+                LOGGER.log(Level.WARNING, "no such node {0}", id);
+                modified |= logsToCopy.remove(id) != null;
                 continue;
             }
             LogAction la = node.getAction(LogAction.class);
             if (la != null) {
                 AnnotatedLargeText<? extends FlowNode> logText = la.getLogText();
                 try {
-                    long old = entry.getValue();
-                    long revised = logText.writeRawLogTo(old, listener.getLogger());
-                    if (revised != old) {
-                        entry.setValue(revised);
-                        modified = true;
-                    }
+                    long revised = logText.writeRawLogTo(offset, listener.getLogger());
                     if (logText.isComplete()) {
-                        logText.writeRawLogTo(entry.getValue(), listener.getLogger()); // defend against race condition?
+                        logText.writeRawLogTo(revised, listener.getLogger()); // defend against race condition?
                         assert !node.isRunning() : "LargeText.complete yet " + node + " claims to still be running";
-                        it.remove();
+                        logsToCopy.remove(id);
+                        modified = true;
+                    } else if (!Long.valueOf(revised).equals(logsToCopy.put(id, revised))) {
                         modified = true;
                     }
                 } catch (IOException x) {
                     LOGGER.log(Level.WARNING, null, x);
-                    it.remove();
-                    modified = true;
+                    modified |= logsToCopy.remove(id) != null;
                 }
             } else if (!node.isRunning()) {
-                it.remove();
-                modified = true;
+                modified |= logsToCopy.remove(id) != null;
             }
         }
-        if (modified) {
+        logOffsetsDirty |= modified;
+        saveLogOffsetsIfDirty(false);
+    }
+
+    /**
+     * Saves {@link #logsToCopy} if it changed, but unless {@code force}, at most once per {@link #LOG_OFFSETS_SAVE_INTERVAL},
+     * since chatty steps can move offsets many times a second.
+     * Anything held back is saved on a later call, as {@link #waitForCompletion} calls {@link #copyLogs} at least every second.
+     */
+    @GuardedBy("completed")
+    private void saveLogOffsetsIfDirty(boolean force) {
+        if (!logOffsetsDirty || logsToCopy == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (!force && now - logOffsetsSaved < LOG_OFFSETS_SAVE_INTERVAL) {
+            return;
+        }
+        try {
+            saveLogOffsets();
+            logOffsetsDirty = false;
+            logOffsetsSaved = now;
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, null, x);
+        }
+    }
+
+    /**
+     * Index of the output of each node within the build log, if step output goes straight into it.
+     */
+    private File getLogIndexFile() {
+        return new File(getRootDir(), "log-index");
+    }
+
+    /**
+     * If this build was started with {@link #CONSOLIDATED_LOG}, the step logs are kept in the build log itself,
+     * so nothing gets copied and the console is served as is.
+     */
+    @Override public @CheckForNull ConsolidatedLog getConsolidatedLog() throws IOException {
+        ConsolidatedLog l = consolidatedLog;
+        if (l == null && getLogIndexFile().isFile()) {
+            synchronized (this) {
+                l = consolidatedLog;
+                if (l == null) {
+                    // completed, so only needs to be read
+                    consolidatedLog = l = ConsolidatedLog.load(getLogFile(), getLogIndexFile());
+                }
+            }
+        }
+        return l;
+    }
+
+    /**
+     * Side file recording {@link #logsToCopy}, so that copying can resume where it left off after a restart
+     * without having to rewrite {@code build.xml} whenever a log grows.
+     */
+    private File getLogOffsetsFile() {
+        return new File(getRootDir(), "log-offsets.txt");
+    }
+
+    @GuardedBy("completed")
+    private void saveLogOffsets() throws IOException {
+        AtomicFileWriter w = new AtomicFileWriter(getLogOffsetsFile());
+        try {
+            for (Map.Entry<String,Long> entry : logsToCopy.entrySet()) {
+                w.write(entry.getKey() + ' ' + entry.getValue() + '\n');
+            }
+            w.commit();
+        } finally {
+            w.abort();
+        }
+    }
+
+    private Map<String,Long> loadLogOffsets() throws IOException {
+        Map<String,Long> offsets = new LinkedHashMap<String,Long>();
+        File f = getLogOffsetsFile();
+        if (f.isFile()) {
+            BufferedReader r = new BufferedReader(new FileReader(f));
             try {
-                save();
-            } catch (IOException x) {
-                LOGGER.log(Level.WARNING, null, x);
+                String line;
+                while ((line = r.readLine()) != null) {
+                    int space = line.lastIndexOf(' ');
+                    if (space > 0) {
+                        offsets.put(line.substring(0, space), Long.parseLong(line.substring(space + 1)));
+                    }
+                }
+            } finally {
+                r.close();
             }
         }
+        return offsets;
     }
-    
+
     private static final Map<String,WorkflowRun> LOADING_RUNS = new HashMap<String,WorkflowRun>();
 
     private String key() {
@@ -298,7 +448,13 @@ public final class WorkflowRun extends Run<WorkflowJob,WorkflowRun> implements Q
             if (!execution.isComplete()) {
                 // we've been restarted while we were running. let's get the execution going again.
                 try {
-                    OutputStream logger = new FileOutputStream(getLogFile(), true);
+                    OutputStream logger;
+                    if (getLogIndexFile().isFile()) {
+                        consolidatedLog = ConsolidatedLog.open(getLogFile(), getLogIndexFile(), true);
+                        logger = consolidatedLog.writer(null);
+                    } else {
+                        logger = new FileOutputStream(getLogFile(), true);
+                    }
                     listener = new StreamBuildListener(logger, Charset.defaultCharset());
                     listener.getLogger().println("Resuming build");
                 } catch (IOException x) {
@@ -306,6 +462,20 @@ public final class WorkflowRun extends Run<WorkflowJob,WorkflowRun> implements Q
                     listener = new StreamBuildListener(new NullStream());
                 }
                 completed = new AtomicBoolean();
+                wakeup = new Semaphore(0);
+                logsUpdated = Collections.synchronizedSet(new LinkedHashSet<String>());
+                try {
+                    logsToCopy = loadLogOffsets();
+                } catch (IOException x) {
+                    LOGGER.log(Level.WARNING, null, x);
+                    logsToCopy = new LinkedHashMap<String,Long>();
+                }
+                if (logsToCopyLegacy != null) {
+                    logsToCopy.putAll(logsToCopyLegacy);
+                    logsToCopyLegacy = null;
+                }
+                // nodes may have finished, or written more, while we were down
+                logsUpdated.addAll(logsToCopy.keySet());
                 Queue.getInstance().schedule(new AfterRestartTask(this), 0);
             }
         }
@@ -339,6 +509,10 @@ public final class WorkflowRun extends Run<WorkflowJob,WorkflowRun> implements Q
         listener.finished(getResult());
         listener.closeQuietly();
         logsToCopy = null;
+        logsToCopyLegacy = null;
+        if (!getLogOffsetsFile().delete() && getLogOffsetsFile().exists()) {
+            LOGGER.log(Level.WARNING, "could not delete {0}", getLogOffsetsFile());
+        }
         duration = Math.max(0, System.currentTimeMillis() - getStartTimeInMillis());
         try {
             save();
@@ -352,6 +526,7 @@ public final class WorkflowRun extends Run<WorkflowJob,WorkflowRun> implements Q
             completed.set(true);
             completed.notifyAll();
         }
+        wakeup.release();
         FlowExecutionList.get().unregister(execution.getOwner());
     }
 
@@ -541,6 +716,25 @@ public final class WorkflowRun extends Run<WorkflowJob,WorkflowRun> implements Q
         @Override public File getRootDir() throws IOException {
             return run().getRootDir();
         }
+        /** Size of the persisted build state other than the log, found without loading the build. */
+        @Override public long estimateResumeCost() {
+            Jenkins jenkins = Jenkins.getInstance();
+            WorkflowJob j = jenkins != null ? jenkins.getItemByFullName(job, WorkflowJob.class) : null;
+            if (j == null) {
+                return -1;
+            }
+            File[] files = new File(j.getBuildDir(), id).listFiles();
+            if (files == null) {
+                return -1;
+            }
+            long size = 0;
+            for (File f : files) {
+                if (f.isFile() && !f.getName().equals("log")) {
+                    size += f.length();
+                }
+            }
+            return size;
+        }
         @Override public Queue.Executable getExecutable() throws IOException {
             return run();
         }
@@ -570,8 +764,13 @@ public final class WorkflowRun extends Run<WorkflowJob,WorkflowRun> implements Q
     private final class GraphL implements GraphListener {
         @Override public void onNewHead(FlowNode node) {
             synchronized (completed) {
-                copyLogs();
-                logsToCopy.put(node.getId(), 0L);
+                if (node instanceof FlowEndNode && logsToCopy != null) {
+                    // last chance: finish stops copying, so take everything still pending, however much
+                    logsUpdated.addAll(logsToCopy.keySet());
+                    copyLogs(Integer.MAX_VALUE);
+                } else {
+                    copyLogs(MAX_LOGS_PER_COPY);
+                }
             }
             node.addAction(new TimingAction());
 
@@ -588,8 +787,27 @@ public final class WorkflowRun extends Run<WorkflowJob,WorkflowRun> implements Q
         }
     }
 
+    /**
+     * Maximum number of node logs {@link #copyLogs} processes at once while the build runs, so that a burst of output
+     * from many branches does not hold up {@link GraphListener#onNewHead}. The rest are picked up by the next call.
+     */
+    private static final int MAX_LOGS_PER_COPY = 100;
+
+    /**
+     * Minimum time in milliseconds between two rewrites of {@link #getLogOffsetsFile} while the build runs.
+     */
+    private static final long LOG_OFFSETS_SAVE_INTERVAL = 1000;
+
+    /**
+     * If true, new builds write the output of all steps once, into the build log, rather than into a file per node
+     * which then gets copied into the build log.
+     */
+    @Restricted(NoExternalUse.class)
+    public static boolean CONSOLIDATED_LOG = Boolean.getBoolean(WorkflowRun.class.getName() + ".consolidatedLog");
+
     static void alias() {
         Run.XSTREAM2.alias("flow-build", WorkflowRun.class);
+        Run.XSTREAM2.aliasField("logsToCopy", WorkflowRun.class, "logsToCopyLegacy");
         new XmlFile(null).getXStream().aliasType("flow-owner", Owner.class); // hack! but how else to set it for arbitrary Descriptor’s?
         Run.XSTREAM2.aliasType("flow-owner", Owner.class);
     }
@@ -25,18 +25,23 @@
 package org.jenkinsci.plugins.workflow.job.views;
 
 import hudson.Extension;
+import hudson.Util;
 import hudson.model.Action;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.AbstractCollection;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import jenkins.model.TransientActionFactory;
 import org.jenkinsci.plugins.workflow.flow.FlowExecution;
-import org.jenkinsci.plugins.workflow.graph.FlowGraphWalker;
 import org.jenkinsci.plugins.workflow.graph.FlowNode;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
 import org.jenkinsci.plugins.workflow.visualization.table.FlowNodeViewColumn;
 import org.jenkinsci.plugins.workflow.visualization.table.FlowNodeViewColumnDescriptor;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.export.Exported;
 import org.kohsuke.stapler.export.ExportedBean;
 
@@ -64,20 +69,56 @@ public final class FlowGraphAction implements Action {
         return "flowGraph";
     }
 
+    /**
+     * All nodes, parents first.
+     * Nodes are only loaded as the result is iterated.
+     */
     @Exported
     public Collection<? extends FlowNode> getNodes() {
-        FlowExecution exec = run.getExecution();
+        final FlowExecution exec = run.getExecution();
         if (exec == null) {
             return Collections.emptySet();
         }
-        List<FlowNode> nodes = new ArrayList<FlowNode>();
-        FlowGraphWalker walker = new FlowGraphWalker(exec);
-        FlowNode n;
-        while ((n = walker.next()) != null) {
-            nodes.add(n);
+        final List<String> ids = FlowGraphExport.of(exec).ids();
+        return new AbstractCollection<FlowNode>() {
+            @Override public Iterator<FlowNode> iterator() {
+                final Iterator<String> it = ids.iterator();
+                return new Iterator<FlowNode>() {
+                    @Override public boolean hasNext() {
+                        return it.hasNext();
+                    }
+                    @Override public FlowNode next() {
+                        try {
+                            return exec.getNode(it.next());
+                        } catch (IOException x) {
+                            throw new IllegalStateException(x);
+                        }
+                    }
+                    @Override public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+            @Override public int size() {
+                return ids.size();
+            }
+        };
+    }
+
+    /**
+     * Streams a summary of the graph as a JSON array, without loading node actions beyond display names.
+     * @param since if set, only nodes added after the one with this ID, so that a client can poll for changes
+     */
+    public void doJson(@QueryParameter String since, StaplerResponse rsp) throws IOException {
+        rsp.setContentType("application/json;charset=UTF-8");
+        PrintWriter w = rsp.getWriter();
+        FlowExecution exec = run.getExecution();
+        if (exec == null) {
+            w.print("[]");
+        } else {
+            FlowGraphExport.of(exec).writeJson(Util.fixEmpty(since), w);
         }
-        Collections.reverse(nodes); // TODO would be more intuitive for FlowGraphWalker to do this to begin with
-        return nodes;
+        w.flush();
     }
 
     @SuppressWarnings("deprecation")
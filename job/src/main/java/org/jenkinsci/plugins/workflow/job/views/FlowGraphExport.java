@@ -0,0 +1,295 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.workflow.job.views;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import javax.annotation.CheckForNull;
+import net.sf.json.util.JSONUtils;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.flow.GraphListener;
+import org.jenkinsci.plugins.workflow.graph.BlockEndNode;
+import org.jenkinsci.plugins.workflow.graph.BlockStartNode;
+import org.jenkinsci.plugins.workflow.graph.FlowEndNode;
+import org.jenkinsci.plugins.workflow.graph.FlowGraphWalker;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+
+/**
+ * Append-only summary of the flow graph of one execution, for {@link GraphVizAction} and {@link FlowGraphAction}.
+ * The graph is walked once; while the build runs, new nodes are appended as a {@link GraphListener} hears of them.
+ * Once the build is complete, the full serializations are computed once and kept.
+ * Holds no reference to the execution itself, so it can be cached weakly by execution.
+ */
+final class FlowGraphExport {
+
+    private static final Map<FlowExecution,Holder> exports = new WeakHashMap<FlowExecution,Holder>();
+
+    static FlowGraphExport of(FlowExecution execution) {
+        Holder h;
+        synchronized (exports) {
+            h = exports.get(execution);
+            if (h == null) {
+                h = new Holder();
+                exports.put(execution, h);
+            }
+        }
+        // walk the graph outside the global lock, so that views of other builds are not held up
+        return h.get(execution);
+    }
+
+    /** Creates the export of one execution at most once. */
+    private static final class Holder {
+        private FlowGraphExport export;
+
+        synchronized FlowGraphExport get(FlowExecution execution) {
+            if (export == null) {
+                export = new FlowGraphExport(execution);
+            }
+            return export;
+        }
+    }
+
+    enum Shape {
+        START, END, ATOM
+    }
+
+    /** What we need to know about one node. */
+    static final class Entry {
+        final String id;
+        final String[] parents;
+        final Shape shape;
+        /** for {@link Shape#END} */
+        final @CheckForNull String startId;
+        final String displayName;
+
+        Entry(FlowNode n) {
+            id = n.getId();
+            List<FlowNode> parentNodes = n.getParents();
+            parents = new String[parentNodes.size()];
+            for (int i = 0; i < parents.length; i++) {
+                parents[i] = parentNodes.get(i).getId();
+            }
+            if (n instanceof BlockStartNode) {
+                shape = Shape.START;
+                startId = null;
+            } else if (n instanceof BlockEndNode) {
+                shape = Shape.END;
+                startId = ((BlockEndNode) n).getStartNode().getId();
+            } else {
+                shape = Shape.ATOM;
+                startId = null;
+            }
+            displayName = n.getDisplayName();
+        }
+    }
+
+    /** all nodes, parents before children */
+    private final List<Entry> entries = new ArrayList<Entry>();
+    /** index of each node in {@link #entries} */
+    private final Map<String,Integer> positions = new HashMap<String,Integer>();
+    private boolean complete;
+    /** nodes heard of while the constructor is walking the graph, or null once it is done */
+    private List<FlowNode> backlog = new ArrayList<FlowNode>();
+    /** full serializations, once {@link #complete} */
+    private volatile String dot, json;
+
+    private FlowGraphExport(final FlowExecution execution) {
+        if (!execution.isComplete()) {
+            // register first so that nothing is missed while walking
+            execution.addListener(new GraphListener() {
+                @Override public void onNewHead(FlowNode node) {
+                    add(node);
+                    if (node instanceof FlowEndNode) {
+                        synchronized (FlowGraphExport.this) {
+                            complete = true;
+                        }
+                        execution.removeListener(this);
+                    }
+                }
+            });
+        }
+        List<FlowNode> nodes = new ArrayList<FlowNode>();
+        FlowGraphWalker walker = new FlowGraphWalker(execution);
+        FlowNode n;
+        while ((n = walker.next()) != null) {
+            nodes.add(n);
+        }
+        synchronized (this) {
+            for (int i = nodes.size() - 1; i >= 0; i--) {
+                append(nodes.get(i));
+            }
+            // new heads announced during the walk may or may not have been reached by it; append the rest now
+            for (FlowNode node : backlog) {
+                append(node);
+            }
+            backlog = null;
+            if (execution.isComplete()) {
+                complete = true;
+            }
+        }
+    }
+
+    private synchronized void add(FlowNode n) {
+        if (backlog != null) {
+            // the walk may have missed this node, so it is appended, after its parents, once the walk is done
+            backlog.add(n);
+            return;
+        }
+        append(n);
+    }
+
+    private void append(FlowNode n) {
+        if (positions.containsKey(n.getId())) {
+            return;
+        }
+        positions.put(n.getId(), entries.size());
+        entries.add(new Entry(n));
+    }
+
+    /**
+     * Gets the nodes added after a given one.
+     * @param since a node ID, or null for all nodes
+     * @return a snapshot of the requested entries, in the order they were added
+     */
+    synchronized List<Entry> entries(@CheckForNull String since) {
+        int start = 0;
+        if (since != null) {
+            Integer p = positions.get(since);
+            if (p != null) {
+                start = p + 1;
+            }
+        }
+        return new ArrayList<Entry>(entries.subList(start, entries.size()));
+    }
+
+    /**
+     * IDs of all nodes in the order they were added.
+     */
+    synchronized List<String> ids() {
+        List<String> ids = new ArrayList<String>(entries.size());
+        for (Entry e : entries) {
+            ids.add(e.id);
+        }
+        return ids;
+    }
+
+    /**
+     * Writes nodes in GraphViz dot notation.
+     * @param since as in {@link #entries}
+     */
+    void writeDot(@CheckForNull String since, PrintWriter w) {
+        if (since == null) {
+            synchronized (this) {
+                if (complete && dot == null) {
+                    StringWriter sw = new StringWriter();
+                    writeDot(entries, new PrintWriter(sw));
+                    dot = sw.toString();
+                }
+            }
+            if (dot != null) {
+                w.print(dot);
+                return;
+            }
+        }
+        writeDot(entries(since), w);
+    }
+
+    /**
+     * Writes nodes as a JSON array of objects.
+     * @param since as in {@link #entries}
+     */
+    void writeJson(@CheckForNull String since, PrintWriter w) {
+        if (since == null) {
+            synchronized (this) {
+                if (complete && json == null) {
+                    StringWriter sw = new StringWriter();
+                    writeJson(entries, new PrintWriter(sw));
+                    json = sw.toString();
+                }
+            }
+            if (json != null) {
+                w.print(json);
+                return;
+            }
+        }
+        writeJson(entries(since), w);
+    }
+
+    private static void writeDot(List<Entry> entries, PrintWriter w) {
+        w.println("digraph G {");
+        for (Entry e : entries) {
+            for (String p : e.parents) {
+                w.printf("%s -> %s%n", p, e.id);
+            }
+            if (e.shape == Shape.START) {
+                w.printf("%s [shape=trapezium]%n", e.id);
+            } else if (e.shape == Shape.END) {
+                w.printf("%s [shape=invtrapezium]%n", e.id);
+                w.printf("%s -> %s [style=dotted]%n", e.startId, e.id);
+            }
+            w.printf("%s [label=\"%s: %s\"]%n", e.id, e.id, e.displayName.replace("\"", "\\\""));
+        }
+        w.println("}");
+        w.flush();
+    }
+
+    private static void writeJson(List<Entry> entries, PrintWriter w) {
+        w.print('[');
+        boolean first = true;
+        for (Entry e : entries) {
+            if (!first) {
+                w.print(',');
+            }
+            first = false;
+            w.print("{\"id\":");
+            w.print(JSONUtils.quote(e.id));
+            w.print(",\"parents\":[");
+            for (int i = 0; i < e.parents.length; i++) {
+                if (i > 0) {
+                    w.print(',');
+                }
+                w.print(JSONUtils.quote(e.parents[i]));
+            }
+            w.print("],\"type\":");
+            w.print(JSONUtils.quote(e.shape.name().toLowerCase(Locale.ENGLISH)));
+            if (e.startId != null) {
+                w.print(",\"startId\":");
+                w.print(JSONUtils.quote(e.startId));
+            }
+            w.print(",\"displayName\":");
+            w.print(JSONUtils.quote(e.displayName));
+            w.print('}');
+        }
+        w.print(']');
+        w.flush();
+    }
+
+}
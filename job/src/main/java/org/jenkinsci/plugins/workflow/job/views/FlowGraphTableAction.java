@@ -28,7 +28,10 @@ import hudson.Extension;
 import hudson.model.Action;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import jenkins.model.TransientActionFactory;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
 import org.jenkinsci.plugins.workflow.support.visualization.table.FlowGraphTable;
 
@@ -52,12 +55,43 @@ public final class FlowGraphTableAction implements Action {
         return "flowGraphTable";
     }
 
+    /**
+     * Gets the table, reusing the one built for an earlier view if the graph has not changed since.
+     * For a completed build it is thus only built once.
+     */
     public FlowGraphTable getFlowGraph() {
-        FlowGraphTable t = new FlowGraphTable(run.getExecution());
-        t.build();
+        FlowExecution exec = run.getExecution();
+        if (exec == null) {
+            FlowGraphTable t = new FlowGraphTable(null);
+            t.build();
+            return t;
+        }
+        FlowGraphTable t;
+        synchronized (tables) {
+            t = tables.get(exec);
+        }
+        if (t == null || !t.isUpToDate()) {
+            t = new FlowGraphTable(exec);
+            t.build();
+            synchronized (tables) {
+                tables.put(exec, t);
+            }
+        }
         return t;
     }
 
+    private static final int CACHE_SIZE = Integer.getInteger(FlowGraphTableAction.class.getName() + ".cacheSize", 20);
+
+    /**
+     * Most recently built table per execution, for the most recently viewed builds.
+     * Bounded since a table holds on to its execution and all its nodes.
+     */
+    private static final Map<FlowExecution,FlowGraphTable> tables = new LinkedHashMap<FlowExecution,FlowGraphTable>(16, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<FlowExecution,FlowGraphTable> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
     @Extension public static final class Factory extends TransientActionFactory<WorkflowRun> {
 
         @Override public Class<WorkflowRun> type() {
@@ -25,21 +25,19 @@
 package org.jenkinsci.plugins.workflow.job.views;
 
 import hudson.Extension;
+import hudson.Util;
 import hudson.model.Action;
-import hudson.util.HttpResponses;
 import hudson.util.IOUtils;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.util.Collection;
 import java.util.Collections;
+import javax.annotation.CheckForNull;
 import jenkins.model.TransientActionFactory;
-import org.jenkinsci.plugins.workflow.graph.BlockEndNode;
-import org.jenkinsci.plugins.workflow.graph.BlockStartNode;
-import org.jenkinsci.plugins.workflow.graph.FlowGraphWalker;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
 import org.jenkinsci.plugins.workflow.graph.FlowNode;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
-import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerResponse;
 
 /**
@@ -69,48 +67,31 @@ public final class GraphVizAction implements Action {
      * Dumps the current {@link FlowNode} graph in the GraphViz dot notation.
      *
      * Primarily for diagnosing the visualization issue.
+     * @param since if set, only nodes added after the one with this ID
      */
-    public HttpResponse doDot() throws IOException {
-        StringWriter sw = new StringWriter();
-        writeDot(new PrintWriter(sw));
-        return HttpResponses.plainText(sw.toString());
+    public void doDot(@QueryParameter String since, StaplerResponse rsp) throws IOException {
+        rsp.setContentType("text/plain;charset=UTF-8");
+        writeDot(since, rsp.getWriter());
     }
 
     @edu.umd.cs.findbugs.annotations.SuppressWarnings("DM_DEFAULT_ENCODING")
     public void doIndex(StaplerResponse rsp) throws IOException {
         Process p = new ProcessBuilder("dot", "-Tpng").start();
-        writeDot(new PrintWriter(p.getOutputStream()));
+        writeDot(null, new PrintWriter(p.getOutputStream()));
 
         rsp.setContentType("image/png");
         IOUtils.copy(p.getInputStream(), rsp.getOutputStream());
     }
 
-    private void writeDot(PrintWriter w) throws IOException {
+    private void writeDot(@CheckForNull String since, PrintWriter w) throws IOException {
         try {
-            w.println("digraph G {");
-            FlowGraphWalker walker = new FlowGraphWalker(run.getExecution());
-            FlowNode n;
-            while ((n=walker.next())!=null) {
-                for (FlowNode p : n.getParents()) {
-                    w.printf("%s -> %s%n",
-                            p.getId(), n.getId());
-                }
-
-                if (n instanceof BlockStartNode) {
-                    BlockStartNode sn = (BlockStartNode) n;
-                    w.printf("%s [shape=trapezium]%n", n.getId());
-                } else
-                if (n instanceof BlockEndNode) {
-                    BlockEndNode sn = (BlockEndNode) n;
-                    w.printf("%s [shape=invtrapezium]%n", n.getId());
-                    w.printf("%s -> %s [style=dotted]%n",
-                            sn.getStartNode().getId(), n.getId());
-                }
-
-                w.printf("%s [label=\"%s: %s\"]%n", n.getId(), n.getId(), n.getDisplayName());
+            FlowExecution exec = run.getExecution();
+            if (exec == null) {
+                w.println("digraph G {");
+                w.println("}");
+            } else {
+                FlowGraphExport.of(exec).writeDot(Util.fixEmpty(since), w);
             }
-
-            w.println("}");
         } finally {
             w.close();
         }
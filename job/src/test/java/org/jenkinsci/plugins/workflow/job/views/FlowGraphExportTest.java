@@ -0,0 +1,120 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.workflow.job.views;
+
+import hudson.model.Result;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.flow.GraphListener;
+import org.jenkinsci.plugins.workflow.graph.AtomNode;
+import org.jenkinsci.plugins.workflow.graph.FlowEndNode;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.graph.FlowStartNode;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import static org.mockito.Mockito.*;
+
+public class FlowGraphExportTest {
+
+    @Test public void nodesAddedDuringConstruction() throws Exception {
+        final FlowExecution exec = mock(FlowExecution.class);
+        final List<GraphListener> listeners = new ArrayList<GraphListener>();
+        doAnswer(new Answer<Void>() {
+            @Override public Void answer(InvocationOnMock invocation) throws Throwable {
+                listeners.add((GraphListener) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(exec).addListener(any(GraphListener.class));
+        final FlowStartNode start = new FlowStartNode(exec, "2");
+        final FlowNode first = new TestNode(exec, "3", start);
+        final FlowNode second = new TestNode(exec, "4", first);
+        when(exec.getCurrentHeads()).thenAnswer(new Answer<List<FlowNode>>() {
+            @Override public List<FlowNode> answer(InvocationOnMock invocation) throws Throwable {
+                // as if the CPS VM thread announced a new head right after the walk took its snapshot
+                for (GraphListener l : listeners) {
+                    l.onNewHead(second);
+                }
+                return Collections.singletonList(first);
+            }
+        });
+
+        FlowGraphExport export = FlowGraphExport.of(exec);
+        assertSame(export, FlowGraphExport.of(exec));
+        assertEquals("[2, 3, 4]", export.ids().toString());
+
+        FlowNode third = new TestNode(exec, "5", second);
+        FlowNode end = new FlowEndNode(exec, "6", start, Result.SUCCESS, third);
+        for (GraphListener l : new ArrayList<GraphListener>(listeners)) {
+            l.onNewHead(third);
+            l.onNewHead(end);
+        }
+        assertEquals("[2, 3, 4, 5, 6]", export.ids().toString());
+        assertEquals("[5, 6]", ids(export.entries("4")).toString());
+        assertTrue(json(export, "4").contains("\"id\":\"6\""));
+        assertFalse(json(export, "4").contains("\"id\":\"4\""));
+
+        // complete now, so the full output is cached
+        String json = json(export, null);
+        for (String id : new String[] {"2", "3", "4", "5", "6"}) {
+            assertTrue(json, json.contains("{\"id\":\"" + id + "\""));
+        }
+        assertEquals(json, json(export, null));
+        verify(exec).removeListener(listeners.get(0));
+        StringWriter dot = new StringWriter();
+        export.writeDot(null, new PrintWriter(dot));
+        assertTrue(dot.toString(), dot.toString().contains("3 -> 4"));
+        assertTrue(dot.toString(), dot.toString().contains("5 -> 6"));
+    }
+
+    private static List<String> ids(List<FlowGraphExport.Entry> entries) {
+        List<String> ids = new ArrayList<String>();
+        for (FlowGraphExport.Entry e : entries) {
+            ids.add(e.id);
+        }
+        return ids;
+    }
+
+    private static String json(FlowGraphExport export, String since) {
+        StringWriter w = new StringWriter();
+        export.writeJson(since, new PrintWriter(w));
+        return w.toString();
+    }
+
+    private static final class TestNode extends AtomNode {
+        TestNode(FlowExecution exec, String id, FlowNode... parents) {
+            super(exec, id, parents);
+        }
+        @Override protected String getTypeDisplayName() {
+            return "test";
+        }
+    }
+
+}
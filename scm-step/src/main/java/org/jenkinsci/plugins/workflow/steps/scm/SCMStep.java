@@ -33,6 +33,7 @@ import hudson.scm.SCM;
 import hudson.scm.SCMRevisionState;
 import java.io.File;
 import java.io.Serializable;
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
@@ -95,25 +96,14 @@ public abstract class SCMStep extends AbstractStepImpl implements Serializable {
                 }
             }
             SCM scm = createSCM();
-            SCMRevisionState baseline = null;
             Run<?,?> prev = run.getPreviousBuild();
-            if (prev != null) {
-                MultiSCMRevisionState state = prev.getAction(MultiSCMRevisionState.class);
-                if (state != null) {
-                    baseline = state.get(scm);
-                }
-            }
+            SCMRevisionState baseline = prev != null ? getRevisionState(prev, scm) : null;
             scm.checkout(run, launcher, workspace, listener, changelogFile, baseline);
             SCMRevisionState pollingBaseline = null;
             if (poll || changelog) {
                 pollingBaseline = scm.calcRevisionsFromBuild(run, workspace, launcher, listener);
                 if (pollingBaseline != null) {
-                    MultiSCMRevisionState state = run.getAction(MultiSCMRevisionState.class);
-                    if (state == null) {
-                        state = new MultiSCMRevisionState();
-                        run.addAction(state);
-                    }
-                    state.add(scm, pollingBaseline);
+                    addRevisionState(run, scm, pollingBaseline);
                 }
             }
             for (SCMListener l : SCMListener.all()) {
@@ -123,6 +113,36 @@ public abstract class SCMStep extends AbstractStepImpl implements Serializable {
             // TODO should we call buildEnvVars and return the result?
     }
 
+    /**
+     * Finds the revision of an SCM recorded by a checkout in a build.
+     * @return the polling baseline, or null if the SCM was not checked out or does not support polling
+     */
+    public static @CheckForNull SCMRevisionState getRevisionState(@Nonnull Run<?,?> run, @Nonnull SCM scm) {
+        MultiSCMRevisionState state = run.getAction(MultiSCMRevisionState.class);
+        return state != null ? state.get(scm) : null;
+    }
+
+    private static void addRevisionState(Run<?,?> run, SCM scm, SCMRevisionState pollingBaseline) {
+        MultiSCMRevisionState state = run.getAction(MultiSCMRevisionState.class);
+        if (state == null) {
+            state = new MultiSCMRevisionState();
+            run.addAction(state);
+        }
+        state.add(scm, pollingBaseline);
+    }
+
+    /**
+     * Records that a build uses a revision already checked out in the workspace by an earlier build, without touching the workspace.
+     * The build gets the same polling baseline and an empty changelog, as if {@link #checkout} had found no changes.
+     * @param pollingBaseline as from {@link #getRevisionState} on the earlier build, after checking that the SCM reports no changes since
+     */
+    public static void reuseCheckout(@Nonnull Run<?,?> run, @Nonnull SCM scm, @Nonnull FilePath workspace, @Nonnull TaskListener listener, @Nonnull SCMRevisionState pollingBaseline) throws Exception {
+        addRevisionState(run, scm, pollingBaseline);
+        for (SCMListener l : SCMListener.all()) {
+            l.onCheckout(run, scm, workspace, listener, null, pollingBaseline);
+        }
+    }
+
     public static abstract class SCMStepDescriptor extends AbstractStepDescriptorImpl {
 
         protected SCMStepDescriptor() {
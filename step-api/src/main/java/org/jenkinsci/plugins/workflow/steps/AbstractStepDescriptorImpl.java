@@ -27,6 +27,16 @@ public abstract class AbstractStepDescriptorImpl extends StepDescriptor {
         return executionType;
     }
 
+    /**
+     * Whether an {@link AbstractSynchronousStepExecution} of this step should be run on a background thread,
+     * rather than blocking the thread which started it.
+     * Appropriate for steps which may spend a while on I/O, such as talking to an agent,
+     * and which need not survive a restart.
+     */
+    public boolean runsInBackground() {
+        return false;
+    }
+
     /**
      * Looks for the fields and setter methods with {@link StepContextParameter}s
      * and infer required contexts from there.
@@ -32,7 +32,12 @@ public abstract class AbstractStepExecutionImpl extends StepExecution {
 
     protected void inject() {
         try {
-            AbstractStepImpl.prepareInjector(getContext(), null).injectMembers(this);
+            InjectionPlan plan = AbstractStepImpl.getInjectionPlan(getClass(), null);
+            if (plan != null) {
+                plan.injectMembers(this, AbstractStepImpl.getJenkinsInjector(), getContext(), null);
+            } else {
+                AbstractStepImpl.prepareInjector(getContext(), null).injectMembers(this);
+            }
         } catch (Exception e) {
             getContext().onFailure(e);
         }
@@ -9,6 +9,7 @@ import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.StaplerRequest;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 
@@ -33,17 +34,47 @@ public abstract class AbstractStepImpl extends Step {
     /** Constructs a step execution automatically according to {@link AbstractStepDescriptorImpl#getExecutionType}. */
     @Override public final StepExecution start(StepContext context) throws Exception {
         AbstractStepDescriptorImpl d = (AbstractStepDescriptorImpl) getDescriptor();
-        return prepareInjector(context, this).getInstance(d.getExecutionType());
+        StepExecution execution;
+        InjectionPlan plan = getInjectionPlan(d.getExecutionType(), this);
+        if (plan != null) {
+            execution = d.getExecutionType().cast(plan.newInstance(getJenkinsInjector(), context, this));
+        } else {
+            execution = prepareInjector(context, this).getInstance(d.getExecutionType());
+        }
+        if (execution instanceof AbstractSynchronousStepExecution && d.runsInBackground()) {
+            ((AbstractSynchronousStepExecution<?>) execution).background = true;
+        }
+        return execution;
     }
 
     /**
-     * Creates an {@link Injector} that performs injection to {@link Inject} and {@link StepContextParameter}.
+     * Looks up a cached plan doing the same as {@link #prepareInjector} for the given type, if possible.
      */
-    protected static Injector prepareInjector(final StepContext context, @Nullable final Step step) {
+    static @CheckForNull InjectionPlan getInjectionPlan(Class<?> type, @Nullable Step step) {
+        if (USE_GUICE) {
+            return null;
+        }
+        InjectionPlan plan = InjectionPlan.of(type);
+        return plan != null && plan.canInject(step) ? plan : null;
+    }
+
+    static Injector getJenkinsInjector() {
         Jenkins j = Jenkins.getInstance();
         if (j == null) {
             throw new IllegalStateException("Jenkins is not running");
         }
-        return j.getInjector().createChildInjector(new ContextParameterModule(step,context));
+        return j.getInjector();
+    }
+
+    /**
+     * Creates an {@link Injector} that performs injection to {@link Inject} and {@link StepContextParameter}.
+     */
+    protected static Injector prepareInjector(final StepContext context, @Nullable final Step step) {
+        return getJenkinsInjector().createChildInjector(new ContextParameterModule(step,context));
     }
+
+    /**
+     * If true, always go through {@link #prepareInjector} rather than a cached {@link InjectionPlan}.
+     */
+    static boolean USE_GUICE = Boolean.getBoolean(AbstractStepImpl.class.getName() + ".useGuice");
 }
@@ -2,17 +2,43 @@ package org.jenkinsci.plugins.workflow.steps;
 
 import hudson.model.Executor;
 import hudson.model.Result;
+import hudson.security.ACL;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import org.acegisecurity.Authentication;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static hudson.model.Result.ABORTED;
 
 /**
  * {@link StepExecution} that always executes synchronously.
+ *
+ * <p>
+ * If the step's descriptor {@linkplain AbstractStepDescriptorImpl#runsInBackground asks for it},
+ * {@link #run} is instead called on a bounded pool of background threads,
+ * so that a slow call does not hold up the thread that started the step (in a flow, all other branches of the build).
+ * The step is still synchronous from the point of view of the script, but it cannot survive a restart.
  * @param <T> the type of the return value (may be {@link Void})
  * @author Kohsuke Kawaguchi
  */
 public abstract class AbstractSynchronousStepExecution<T> extends AbstractStepExecutionImpl {
     private transient volatile Thread executing;
 
+    /** set by {@link AbstractStepImpl#start} if {@link #run} should be called from {@link #POOL} */
+    boolean background;
+
+    /** the pending or running call to {@link #run}, if in the background */
+    private transient volatile Future<?> task;
+
     protected AbstractSynchronousStepExecution() {
     }
 
@@ -29,6 +55,35 @@ public abstract class AbstractSynchronousStepExecution<T> extends AbstractStepEx
 
     @Override
     public final boolean start() throws Exception {
+        if (background && BACKGROUND) {
+            final long submitted = System.nanoTime();
+            final Authentication auth = Jenkins.getAuthentication();
+            final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            task = POOL.submit(new Runnable() {
+                @Override public void run() {
+                    long started = System.nanoTime();
+                    queueTime.addAndGet(started - submitted);
+                    Thread t = Thread.currentThread();
+                    ClassLoader oldLoader = t.getContextClassLoader();
+                    t.setContextClassLoader(loader);
+                    SecurityContext oldContext = ACL.impersonate(auth);
+                    try {
+                        execute();
+                    } finally {
+                        SecurityContextHolder.setContext(oldContext);
+                        t.setContextClassLoader(oldLoader);
+                        runTime.addAndGet(System.nanoTime() - started);
+                        completed.incrementAndGet();
+                    }
+                }
+            });
+            return false;
+        }
+        execute();
+        return true;
+    }
+
+    private void execute() {
         executing = Thread.currentThread();
         try {
             getContext().onSuccess(run());
@@ -37,7 +92,6 @@ public abstract class AbstractSynchronousStepExecution<T> extends AbstractStepEx
         } finally {
             executing = null;
         }
-        return true;
     }
 
     /**
@@ -45,6 +99,12 @@ public abstract class AbstractSynchronousStepExecution<T> extends AbstractStepEx
      */
     @Override
     public void stop(Throwable cause) throws Exception {
+        Future<?> f = task;
+        if (f != null && f.cancel(false)) {
+            // never got to run
+            getContext().onFailure(cause);
+            return;
+        }
         Thread e = executing;   // capture
         if (e!=null) {
             if (e instanceof Executor) {
@@ -54,4 +114,67 @@ public abstract class AbstractSynchronousStepExecution<T> extends AbstractStepEx
             }
         }
     }
+
+    /**
+     * A background call to {@link #run} is lost on restart, so the step fails.
+     */
+    @Override
+    public void onResume() {
+        super.onResume();
+        if (background) {
+            getContext().onFailure(new IOException("Jenkins was restarted while " + getClass().getName() + " was running in the background"));
+        }
+    }
+
+    /**
+     * Number of steps waiting for a background thread.
+     */
+    public static int getBackgroundQueueLength() {
+        return POOL.getQueue().size();
+    }
+
+    /**
+     * Number of background threads currently running a step.
+     */
+    public static int getBackgroundActiveCount() {
+        return POOL.getActiveCount();
+    }
+
+    /**
+     * Number of steps which have completed in the background.
+     */
+    public static long getBackgroundCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * Total time, in milliseconds, background steps spent waiting for a thread.
+     */
+    public static long getBackgroundQueueTime() {
+        return TimeUnit.NANOSECONDS.toMillis(queueTime.get());
+    }
+
+    /**
+     * Total time, in milliseconds, background steps spent running.
+     */
+    public static long getBackgroundRunTime() {
+        return TimeUnit.NANOSECONDS.toMillis(runTime.get());
+    }
+
+    /**
+     * If false, steps asking to run in the background are run synchronously as before.
+     */
+    static boolean BACKGROUND = !Boolean.getBoolean(AbstractSynchronousStepExecution.class.getName() + ".disableBackground");
+
+    private static final int BACKGROUND_THREADS = Integer.getInteger(AbstractSynchronousStepExecution.class.getName() + ".backgroundThreads", 10);
+
+    private static final ThreadPoolExecutor POOL = new ThreadPoolExecutor(BACKGROUND_THREADS, BACKGROUND_THREADS, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new NamingThreadFactory(new DaemonThreadFactory(), "AbstractSynchronousStepExecution"));
+    static {
+        POOL.allowCoreThreadTimeOut(true);
+    }
+
+    private static final AtomicLong completed = new AtomicLong();
+    private static final AtomicLong queueTime = new AtomicLong();
+    private static final AtomicLong runTime = new AtomicLong();
 }
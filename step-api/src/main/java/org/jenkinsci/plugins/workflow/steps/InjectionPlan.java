@@ -0,0 +1,223 @@
+package org.jenkinsci.plugins.workflow.steps;
+
+import com.google.inject.BindingAnnotation;
+import com.google.inject.ConfigurationException;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.ProvisionException;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import javax.inject.Qualifier;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Precomputed equivalent of what {@link ContextParameterModule} makes Guice do for a given {@link StepExecution} type,
+ * so that the common case of creating or resuming an execution does not need a child {@link Injector} each time.
+ *
+ * <p>
+ * Only covers the simple and by far most common shape: a non-private no-argument constructor,
+ * {@link com.google.inject.Inject}/{@link javax.inject.Inject} on fields only, and {@link StepContextParameter}.
+ * Anything fancier, such as injected constructors or methods or binding annotations, is left to Guice.
+ */
+final class InjectionPlan {
+    private final Constructor<?> constructor;
+    /** {@link com.google.inject.Inject}ed fields, superclasses first. */
+    private final InjectedField[] injected;
+    /** {@link StepContextParameter} fields and methods of the class itself, as {@link ContextParameterModule} only looks at those. */
+    private final Field[] contextFields;
+    private final Method[] contextMethods;
+
+    private InjectionPlan(Constructor<?> constructor, InjectedField[] injected, Field[] contextFields, Method[] contextMethods) {
+        this.constructor = constructor;
+        this.injected = injected;
+        this.contextFields = contextFields;
+        this.contextMethods = contextMethods;
+    }
+
+    private static final Map<Class<?>,InjectionPlan> PLANS = new ConcurrentHashMap<Class<?>,InjectionPlan>();
+
+    /** Marks classes that need Guice. */
+    private static final InjectionPlan UNSUPPORTED = new InjectionPlan(null, null, null, null);
+
+    /**
+     * Looks up the plan for a type.
+     * @return null if Guice has to be used instead
+     */
+    static @CheckForNull InjectionPlan of(Class<?> type) {
+        InjectionPlan p = PLANS.get(type);
+        if (p == null) {
+            p = compute(type);
+            PLANS.put(type, p);
+        }
+        return p == UNSUPPORTED ? null : p;
+    }
+
+    private static InjectionPlan compute(Class<?> type) {
+        if (Modifier.isAbstract(type.getModifiers()) || (type.getEnclosingClass() != null && !Modifier.isStatic(type.getModifiers()))) {
+            return UNSUPPORTED;
+        }
+        Constructor<?> constructor = null;
+        for (Constructor<?> c : type.getDeclaredConstructors()) {
+            if (isInject(c)) {
+                return UNSUPPORTED;
+            }
+            if (c.getParameterTypes().length == 0 && !Modifier.isPrivate(c.getModifiers())) {
+                constructor = c;
+            }
+        }
+        if (constructor == null) {
+            return UNSUPPORTED;
+        }
+        constructor.setAccessible(true);
+
+        List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            hierarchy.add(0, c);
+        }
+        List<InjectedField> injected = new ArrayList<InjectedField>();
+        for (Class<?> c : hierarchy) {
+            for (Method m : c.getDeclaredMethods()) {
+                if (isInject(m)) {
+                    return UNSUPPORTED;
+                }
+            }
+            for (Field f : c.getDeclaredFields()) {
+                if (!isInject(f) || Modifier.isStatic(f.getModifiers())) {
+                    continue;
+                }
+                for (Annotation a : f.getAnnotations()) {
+                    if (a.annotationType().isAnnotationPresent(BindingAnnotation.class) || a.annotationType().isAnnotationPresent(Qualifier.class)) {
+                        return UNSUPPORTED;
+                    }
+                }
+                f.setAccessible(true);
+                com.google.inject.Inject guiceInject = f.getAnnotation(com.google.inject.Inject.class);
+                injected.add(new InjectedField(f, guiceInject != null && guiceInject.optional()));
+            }
+        }
+
+        List<Field> contextFields = new ArrayList<Field>();
+        for (Field f : type.getDeclaredFields()) {
+            if (f.isAnnotationPresent(StepContextParameter.class)) {
+                f.setAccessible(true);
+                contextFields.add(f);
+            }
+        }
+        List<Method> contextMethods = new ArrayList<Method>();
+        for (Method m : type.getDeclaredMethods()) {
+            if (m.isAnnotationPresent(StepContextParameter.class)) {
+                m.setAccessible(true);
+                contextMethods.add(m);
+            }
+        }
+        return new InjectionPlan(constructor, injected.toArray(new InjectedField[injected.size()]),
+                contextFields.toArray(new Field[contextFields.size()]), contextMethods.toArray(new Method[contextMethods.size()]));
+    }
+
+    private static boolean isInject(java.lang.reflect.AnnotatedElement e) {
+        return e.isAnnotationPresent(com.google.inject.Inject.class) || e.isAnnotationPresent(javax.inject.Inject.class);
+    }
+
+    /**
+     * Whether {@link #injectMembers} can do without Guice for this call.
+     * Without a step, a mandatory injection of one could only be resolved, or rejected, by Guice.
+     */
+    boolean canInject(@Nullable Step step) {
+        if (step == null) {
+            for (InjectedField f : injected) {
+                if (!f.optional && Step.class.isAssignableFrom(f.field.getType())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates and injects an instance.
+     */
+    Object newInstance(Injector parent, StepContext context, @Nullable Step step) {
+        Object instance;
+        try {
+            instance = constructor.newInstance();
+        } catch (InstantiationException e) {
+            throw new ProvisionException("Failed to create " + constructor.getDeclaringClass(), e);
+        } catch (IllegalAccessException e) {
+            throw (Error) new IllegalAccessError(e.getMessage()).initCause(e);
+        } catch (InvocationTargetException e) {
+            throw new ProvisionException("Failed to create " + constructor.getDeclaringClass(), e.getCause());
+        }
+        injectMembers(instance, parent, context, step);
+        return instance;
+    }
+
+    /**
+     * Same as {@link Injector#injectMembers} on a child injector configured by {@link ContextParameterModule}.
+     */
+    void injectMembers(Object instance, Injector parent, StepContext context, @Nullable Step step) {
+        try {
+            for (InjectedField f : injected) {
+                Class<?> type = f.field.getType();
+                Object value;
+                if (type == StepContext.class) {
+                    value = context;
+                } else if (step != null && type != Step.class && Step.class.isAssignableFrom(type) && type.isInstance(step)) {
+                    // ContextParameterModule binds every class from the concrete step type up to Step
+                    value = step;
+                } else if (step == null && Step.class.isAssignableFrom(type)) {
+                    continue; // optional, per canInject
+                } else {
+                    try {
+                        value = parent.getInstance(Key.get(f.field.getGenericType()));
+                    } catch (ConfigurationException e) {
+                        if (f.optional) {
+                            continue;
+                        }
+                        throw e;
+                    }
+                }
+                f.field.set(instance, value);
+            }
+            for (Field f : contextFields) {
+                f.set(instance, context.get(f.getType()));
+            }
+            for (Method m : contextMethods) {
+                Class<?>[] types = m.getParameterTypes();
+                Object[] args = new Object[types.length];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = context.get(types[i]);
+                }
+                m.invoke(instance, args);
+            }
+        } catch (IllegalAccessException e) {
+            throw (Error) new IllegalAccessError(e.getMessage()).initCause(e);
+        } catch (InvocationTargetException e) {
+            throw new ProvisionException("Failed to set a context parameter", e);
+        } catch (InterruptedException e) {
+            throw new ProvisionException("Failed to set a context parameter", e);
+        } catch (IOException e) {
+            throw new ProvisionException("Failed to set a context parameter", e);
+        }
+    }
+
+    private static final class InjectedField {
+        final Field field;
+        final boolean optional;
+
+        InjectedField(Field field, boolean optional) {
+            this.field = field;
+            this.optional = optional;
+        }
+    }
+}
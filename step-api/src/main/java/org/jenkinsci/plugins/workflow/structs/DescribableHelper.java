@@ -47,6 +47,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -82,15 +84,171 @@ public class DescribableHelper {
      * and only one subtype is registered (as a {@link Descriptor}) with that simple name.
      */
     public static <T> T instantiate(Class<? extends T> clazz, Map<String,?> arguments) throws Exception {
-        ClassDescriptor d = new ClassDescriptor(clazz);
-        String[] names = d.loadConstructorParamNames();
-        Constructor<T> c = findConstructor(clazz, names.length);
-        Object[] args = buildArguments(clazz, arguments, c.getGenericParameterTypes(), names, true);
-        T o = c.newInstance(args);
-        injectSetters(o, arguments);
+        Binder b = binder(clazz);
+        Object[] args = buildArguments(clazz, arguments, b.types, b.names, true);
+        @SuppressWarnings("unchecked") T o = (T) b.constructor.newInstance(args);
+        b.injectSetters(o, arguments);
         return o;
     }
 
+    /**
+     * Same as {@link ClassDescriptor#loadConstructorParamNames} but remembered per class.
+     * @throws NoStaplerConstructorException if there is no suitable constructor
+     */
+    public static String[] getConstructorParamNames(Class<?> clazz) {
+        return binder(clazz).names.clone();
+    }
+
+    /** Number of {@link #instantiate} calls (including nested ones) which found the class already analyzed. */
+    public static long getBinderCacheHitCount() {
+        return binderHits.get();
+    }
+
+    /** Number of times a class had to be analyzed. */
+    public static long getBinderCacheMissCount() {
+        return binderMisses.get();
+    }
+
+    /** Number of classes currently analyzed. */
+    public static int getBinderCacheSize() {
+        return BINDERS.size();
+    }
+
+    /** Number of supertypes for which implementations by simple name are currently indexed. */
+    public static int getSubtypeCacheSize() {
+        return SUBTYPES.size();
+    }
+
+    private static final Map<Class<?>,Binder> BINDERS = new ConcurrentHashMap<Class<?>,Binder>();
+    private static final Map<Class<?>,SubtypeIndex> SUBTYPES = new ConcurrentHashMap<Class<?>,SubtypeIndex>();
+    private static final AtomicLong binderHits = new AtomicLong();
+    private static final AtomicLong binderMisses = new AtomicLong();
+
+    private static Binder binder(Class<?> clazz) {
+        Binder b = BINDERS.get(clazz);
+        if (b != null) {
+            binderHits.incrementAndGet();
+            return b;
+        }
+        binderMisses.incrementAndGet();
+        b = new Binder(clazz); // failures are not cached, so they are reported the same way each time
+        BINDERS.put(clazz, b);
+        return b;
+    }
+
+    /**
+     * Everything {@link #instantiate} needs to know about a class, looked up once.
+     */
+    private static final class Binder {
+        final Constructor<?> constructor;
+        final String[] names;
+        final Type[] types;
+        /** In the order {@link #injectSetters} visits them: subclass first, fields before methods. */
+        final Setter[] setters;
+
+        Binder(Class<?> clazz) {
+            names = new ClassDescriptor(clazz).loadConstructorParamNames();
+            constructor = findConstructor(clazz, names.length);
+            types = constructor.getGenericParameterTypes();
+            List<Setter> setters = new ArrayList<Setter>();
+            for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+                for (Field f : c.getDeclaredFields()) {
+                    if (f.isAnnotationPresent(DataBoundSetter.class)) {
+                        f.setAccessible(true);
+                        setters.add(new Setter(c, f.getName(), f, null, f.getType()));
+                    }
+                }
+                for (Method m : c.getDeclaredMethods()) {
+                    if (m.isAnnotationPresent(DataBoundSetter.class)) {
+                        Type[] parameterTypes = m.getGenericParameterTypes();
+                        if (!m.getName().startsWith("set") || parameterTypes.length != 1) {
+                            throw new IllegalStateException(m + " cannot be a @DataBoundSetter");
+                        }
+                        m.setAccessible(true);
+                        setters.add(new Setter(c, Introspector.decapitalize(m.getName().substring(3)), null, m, parameterTypes[0]));
+                    }
+                }
+            }
+            this.setters = setters.toArray(new Setter[setters.size()]);
+        }
+
+        /**
+         * Injects via {@link DataBoundSetter}
+         */
+        void injectSetters(Object o, Map<String,?> arguments) throws Exception {
+            for (Setter s : setters) {
+                if (s.field != null) {
+                    if (arguments.containsKey(s.name)) {
+                        Object v = arguments.get(s.name);
+                        s.field.set(o, v != null ? coerce(s.owner.getName() + "." + s.name, s.type, v) : null);
+                    }
+                } else {
+                    Object[] args = buildArguments(s.owner, arguments, new Type[] {s.type}, new String[] {s.name}, false);
+                    if (args != null) {
+                        s.method.invoke(o, args);
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class Setter {
+        /** Declaring class, used for error messages. */
+        final Class<?> owner;
+        final String name;
+        final Field field;
+        final Method method;
+        final Type type;
+
+        Setter(Class<?> owner, String name, Field field, Method method, Type type) {
+            this.owner = owner;
+            this.name = name;
+            this.field = field;
+            this.method = method;
+            this.type = type;
+        }
+    }
+
+    /**
+     * Registered implementations of a supertype by {@link Class#getSimpleName}.
+     * Rebuilt when the number of descriptors changes, as when a plugin is dynamically loaded.
+     */
+    private static final class SubtypeIndex {
+        final int descriptorCount;
+        final Map<String,List<Class<?>>> bySimpleName = new HashMap<String,List<Class<?>>>();
+
+        @SuppressWarnings("rawtypes")
+        SubtypeIndex(Class<?> supertype, List<? extends Descriptor> descriptors) {
+            descriptorCount = descriptors.size();
+            for (Class<?> c : findSubtypes(supertype, descriptors)) {
+                List<Class<?>> named = bySimpleName.get(c.getSimpleName());
+                if (named == null) {
+                    named = new ArrayList<Class<?>>(1);
+                    bySimpleName.put(c.getSimpleName(), named);
+                }
+                named.add(c);
+            }
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static Class<?> findSubtype(Class<?> supertype, String simpleName) {
+        List<? extends Descriptor> descriptors = getDescriptorList();
+        SubtypeIndex index = SUBTYPES.get(supertype);
+        if (index == null || index.descriptorCount != descriptors.size()) {
+            index = new SubtypeIndex(supertype, descriptors);
+            SUBTYPES.put(supertype, index);
+        }
+        List<Class<?>> named = index.bySimpleName.get(simpleName);
+        if (named == null) {
+            throw new UnsupportedOperationException("no known implementation of " + supertype + " is named " + simpleName);
+        }
+        if (named.size() > 1) {
+            throw new UnsupportedOperationException(simpleName + " as a " + supertype +  " could mean either " + named.get(0).getName() + " or " + named.get(1).getName());
+        }
+        return named.get(0);
+    }
+
     /**
      * Computes arguments suitable to pass to {@link #instantiate} to reconstruct this object.
      * @param o a data-bound object
@@ -217,18 +375,7 @@ public class DescribableHelper {
                 ClassLoader loader = j != null ? j.getPluginManager().uberClassLoader : DescribableHelper.class.getClassLoader();
                 clazz = loader.loadClass(clazzS);
             } else {
-                clazz = null;
-                for (Class<?> c : findSubtypes((Class<?>) type)) {
-                    if (c.getSimpleName().equals(clazzS)) {
-                        if (clazz != null) {
-                            throw new UnsupportedOperationException(clazzS + " as a " + type +  " could mean either " + clazz.getName() + " or " + c.getName());
-                        }
-                        clazz = c;
-                    }
-                }
-                if (clazz == null) {
-                    throw new UnsupportedOperationException("no known implementation of " + type + " is named " + clazzS);
-                }
+                clazz = findSubtype((Class<?>) type, clazzS);
             }
             return instantiate(clazz.asSubclass((Class<?>) type), m);
         } else if (o instanceof String && type instanceof Class && ((Class) type).isEnum()) {
@@ -280,36 +427,6 @@ public class DescribableHelper {
         throw new IllegalArgumentException(clazz + " does not have a constructor with " + length + " arguments");
     }
 
-    /**
-     * Injects via {@link DataBoundSetter}
-     */
-    private static void injectSetters(Object o, Map<String,?> arguments) throws Exception {
-        for (Class<?> c = o.getClass(); c != null; c = c.getSuperclass()) {
-            for (Field f : c.getDeclaredFields()) {
-                if (f.isAnnotationPresent(DataBoundSetter.class)) {
-                    f.setAccessible(true);
-                    if (arguments.containsKey(f.getName())) {
-                        Object v = arguments.get(f.getName());
-                        f.set(o, v != null ? coerce(c.getName() + "." + f.getName(), f.getType(), v) : null);
-                    }
-                }
-            }
-            for (Method m : c.getDeclaredMethods()) {
-                if (m.isAnnotationPresent(DataBoundSetter.class)) {
-                    Type[] parameterTypes = m.getGenericParameterTypes();
-                    if (!m.getName().startsWith("set") || parameterTypes.length != 1) {
-                        throw new IllegalStateException(m + " cannot be a @DataBoundSetter");
-                    }
-                    m.setAccessible(true);
-                    Object[] args = buildArguments(c, arguments, parameterTypes, new String[] {Introspector.decapitalize(m.getName().substring(3))}, false);
-                    if (args != null) {
-                        m.invoke(o, args);
-                    }
-                }
-            }
-        }
-    }
-
     private static void inspect(Map<String, Object> r, Object o, Class<?> clazz, String field) {
         AtomicReference<Type> type = new AtomicReference<Type>();
         Object value = inspect(o, clazz, field, type);
@@ -384,8 +501,13 @@ public class DescribableHelper {
     }
 
     static <T> Set<Class<? extends T>> findSubtypes(Class<T> supertype) {
+        return findSubtypes(supertype, getDescriptorList());
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static <T> Set<Class<? extends T>> findSubtypes(Class<T> supertype, List<? extends Descriptor> descriptors) {
         Set<Class<? extends T>> clazzes = new HashSet<Class<? extends T>>();
-        for (Descriptor<?> d : getDescriptorList()) {
+        for (Descriptor<?> d : descriptors) {
             if (supertype.isAssignableFrom(d.clazz)) {
                 clazzes.add(d.clazz.asSubclass(supertype));
             }
@@ -0,0 +1,59 @@
+package org.jenkinsci.plugins.workflow.steps;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import static org.mockito.Mockito.*;
+
+public class AbstractSynchronousStepExecutionTest {
+
+    @Test
+    public void inline() throws Exception {
+        StepContext context = mock(StepContext.class);
+        Execution e = new Execution(context);
+        assertTrue(e.start());
+        verify(context).onSuccess(Thread.currentThread().getName());
+    }
+
+    @Test
+    public void background() throws Exception {
+        StepContext context = mock(StepContext.class);
+        Execution e = new Execution(context);
+        e.background = true;
+        long completed = AbstractSynchronousStepExecution.getBackgroundCompletedCount();
+        assertFalse(e.start());
+        e.proceed.countDown();
+        verify(context, timeout(10000)).onSuccess(argThat(not(Thread.currentThread().getName())));
+        assertTrue(AbstractSynchronousStepExecution.getBackgroundCompletedCount() > completed);
+    }
+
+    @Test
+    public void stopWhileRunning() throws Exception {
+        StepContext context = mock(StepContext.class);
+        Execution e = new Execution(context);
+        e.background = true;
+        assertFalse(e.start());
+        assertTrue(e.running.await(10, TimeUnit.SECONDS));
+        e.stop(new Exception("stop"));
+        verify(context, timeout(10000)).onFailure(any(InterruptedException.class));
+    }
+
+    private static final class Execution extends AbstractSynchronousStepExecution<String> {
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        Execution(StepContext context) {
+            super(context);
+        }
+        @Override protected String run() throws Exception {
+            if (background) {
+                running.countDown();
+                proceed.await();
+            }
+            return Thread.currentThread().getName();
+        }
+    }
+
+}
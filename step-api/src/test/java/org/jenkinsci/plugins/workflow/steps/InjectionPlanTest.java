@@ -0,0 +1,122 @@
+package org.jenkinsci.plugins.workflow.steps;
+
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import hudson.model.TaskListener;
+import static org.junit.Assert.*;
+import org.junit.Assume;
+import org.junit.Test;
+
+import static org.mockito.Mockito.*;
+
+public class InjectionPlanTest {
+
+    private final Injector parent = Guice.createInjector();
+
+    @Test
+    public void sameAsGuice() throws Exception {
+        TheStep step = new TheStep();
+        StepContext context = mock(StepContext.class);
+        TaskListener listener = mock(TaskListener.class);
+        when(context.get(TaskListener.class)).thenReturn(listener);
+        when(context.get(String.class)).thenReturn("hello");
+
+        InjectionPlan plan = InjectionPlan.of(TheExecution.class);
+        assertNotNull(plan);
+        TheExecution e = (TheExecution) plan.newInstance(parent, context, step);
+        TheExecution expected = parent.createChildInjector(new ContextParameterModule(step, context)).getInstance(TheExecution.class);
+        for (TheExecution x : new TheExecution[] {e, expected}) {
+            assertSame(context, x.getContext());
+            assertSame(step, x.step);
+            assertNull(x.abstractStep); // Step itself is not bound
+            assertSame(listener, x.listener);
+            assertEquals("hello", x.message);
+            assertNotNull(x.helper);
+        }
+
+        // as on resume
+        TheExecution resumed = new TheExecution();
+        assertTrue(plan.canInject(null));
+        plan.injectMembers(resumed, parent, context, null);
+        assertNull(resumed.step);
+        assertSame(listener, resumed.listener);
+    }
+
+    @Test
+    public void unsupported() {
+        assertNull(InjectionPlan.of(MethodInjected.class));
+        assertNull(InjectionPlan.of(ConstructorInjected.class));
+        InjectionPlan plan = InjectionPlan.of(MandatoryStep.class);
+        assertNotNull(plan);
+        assertTrue(plan.canInject(new TheStep()));
+        assertFalse(plan.canInject(null));
+    }
+
+    /**
+     * Rough comparison of both ways to create an execution; run with {@code -Dbenchmark=true}.
+     */
+    @Test
+    public void benchmark() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+        TheStep step = new TheStep();
+        StepContext context = mock(StepContext.class);
+        InjectionPlan plan = InjectionPlan.of(TheExecution.class);
+        for (int round = 0; round < 3; round++) {
+            int n = 20000;
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                parent.createChildInjector(new ContextParameterModule(step, context)).getInstance(TheExecution.class);
+            }
+            long guice = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                plan.newInstance(parent, context, step);
+            }
+            long planned = System.nanoTime() - start;
+            System.out.printf("child injector: %dns/op, injection plan: %dns/op%n", guice / n, planned / n);
+        }
+    }
+
+    public static class TheStep extends Step {
+        @Override public StepExecution start(StepContext context) throws Exception {
+            return null;
+        }
+    }
+
+    public static class Helper {}
+
+    public static abstract class AbstractExecution extends StepExecution {
+        @Inject(optional=true) transient TheStep step;
+        @Inject Helper helper;
+    }
+
+    public static class TheExecution extends AbstractExecution {
+        @Inject(optional=true) transient Step abstractStep;
+        @StepContextParameter transient TaskListener listener;
+        transient String message;
+
+        @StepContextParameter void setMessage(String message) {
+            this.message = message;
+        }
+
+        @Override public boolean start() throws Exception {
+            return false;
+        }
+
+        @Override public void stop(Throwable cause) throws Exception {}
+    }
+
+    public static class MethodInjected extends TheExecution {
+        @Inject void setHelper(Helper helper) {}
+    }
+
+    public static class ConstructorInjected extends TheExecution {
+        @Inject ConstructorInjected(Helper helper) {}
+    }
+
+    public static class MandatoryStep extends TheExecution {
+        @Inject transient TheStep mandatory;
+    }
+
+}
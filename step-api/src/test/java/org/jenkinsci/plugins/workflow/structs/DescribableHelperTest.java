@@ -133,6 +133,16 @@ public class DescribableHelperTest {
 
     // TODO also check case that a FQN is needed
 
+    @Test public void bindersCached() throws Exception {
+        DescribableHelper.instantiate(UsesBase.class, map("base", map("$class", "Impl1", "text", "hello")));
+        long misses = DescribableHelper.getBinderCacheMissCount();
+        long hits = DescribableHelper.getBinderCacheHitCount();
+        assertEquals("UsesBase[Impl1[again]]", DescribableHelper.instantiate(UsesBase.class, map("base", map("$class", "Impl1", "text", "again"))).toString());
+        assertEquals(misses, DescribableHelper.getBinderCacheMissCount());
+        assertEquals(hits + 2, DescribableHelper.getBinderCacheHitCount());
+        assertEquals(Arrays.asList("base"), Arrays.asList(DescribableHelper.getConstructorParamNames(UsesBase.class)));
+    }
+
     @Test public void gstring() throws Exception {
         assertEquals("UsesBase[Impl1[hello world]]", DescribableHelper.instantiate(UsesBase.class, map("base", map("$class", "Impl1", "text", new GStringImpl(new Object[] {"hello", "world"}, new String[] {"", " "})))).toString());
     }
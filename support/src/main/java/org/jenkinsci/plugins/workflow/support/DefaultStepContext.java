@@ -30,11 +30,14 @@ import hudson.model.Computer;
 import hudson.model.EnvironmentContributor;
 import hudson.model.Job;
 import hudson.model.Node;
+import hudson.model.Queue;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.util.StreamTaskListener;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -46,8 +49,10 @@ import org.jenkinsci.plugins.workflow.flow.FlowExecution;
 import org.jenkinsci.plugins.workflow.flow.GraphListener;
 import org.jenkinsci.plugins.workflow.graph.FlowNode;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.support.actions.ConsolidatedLog;
 import org.jenkinsci.plugins.workflow.support.actions.EnvironmentAction;
 import org.jenkinsci.plugins.workflow.support.actions.LogActionImpl;
+import org.jenkinsci.plugins.workflow.support.actions.LogAppendListener;
 
 /**
  * Partial implementation of step context.
@@ -78,6 +83,8 @@ public abstract class DefaultStepContext extends StepContext {
             return value;
         } else if (key == TaskListener.class) {
             if (listener == null) {
+                Queue.Executable executable = getExecution().getOwner().getExecutable();
+                ConsolidatedLog consolidated = executable instanceof ConsolidatedLog.Provider ? ((ConsolidatedLog.Provider) executable).getConsolidatedLog() : null;
                 LogActionImpl la = getNode().getAction(LogActionImpl.class);
                 if (la == null) {
                     // TODO: use the default charset of the contextual Computer object
@@ -85,18 +92,36 @@ public abstract class DefaultStepContext extends StepContext {
                     getNode().addAction(la);
                 }
 
-                listener = new StreamTaskListener(new FileOutputStream(la.getLogFile(), true));
-                getExecution().addListener(new GraphListener() {
+                OutputStream log;
+                if (consolidated != null) {
+                    // goes straight to the build log, so nothing needs to be copied
+                    log = consolidated.writer(getNode().getId());
+                } else {
+                    log = new FileOutputStream(la.getLogFile(), true);
+                    if (executable instanceof LogAppendListener) {
+                        log = new NotifyingOutputStream(log, (LogAppendListener) executable, getNode());
+                    }
+                }
+                listener = new StreamTaskListener(log);
+                final FlowExecution execution = getExecution();
+                GraphListener closer = new GraphListener() {
                     @Override public void onNewHead(FlowNode node) {
                         try {
                             if (!getNode().isRunning()) {
                                 listener.getLogger().close();
+                                execution.removeListener(this);
                             }
                         } catch (IOException x) {
                             Logger.getLogger(DefaultStepContext.class.getName()).log(Level.FINE, null, x);
                         }
                     }
-                });
+                };
+                execution.addListener(getNode(), closer);
+                if (!getNode().isRunning()) {
+                    // already past the point where a watcher of this node would be told; close on the next head of any kind
+                    execution.removeListener(closer);
+                    execution.addListener(closer);
+                }
             }
             return key.cast(listener);
         } else if (Node.class.isAssignableFrom(key)) {
@@ -173,4 +198,40 @@ public abstract class DefaultStepContext extends StepContext {
         return env;
     }
 
+    /**
+     * Tells a {@link LogAppendListener} about everything written to a step log.
+     */
+    private static final class NotifyingOutputStream extends FilterOutputStream {
+        private final LogAppendListener appendListener;
+        private final FlowNode node;
+        private boolean closed;
+
+        NotifyingOutputStream(OutputStream out, LogAppendListener appendListener, FlowNode node) {
+            super(out);
+            this.appendListener = appendListener;
+            this.node = node;
+        }
+
+        @Override public void write(int b) throws IOException {
+            out.write(b);
+            appendListener.onLogAppended(node);
+        }
+
+        @Override public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            appendListener.onLogAppended(node);
+        }
+
+        @Override public void close() throws IOException {
+            super.close();
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            appendListener.onLogAppended(node);
+        }
+    }
+
 }
@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.workflow.support;
+
+import hudson.EnvVars;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.annotation.CheckForNull;
+
+/**
+ * Immutable set of environment variables made of a base layer plus a chain of overrides.
+ * Adding an override creates a new layer sharing everything below it, so snapshots are cheap to make and keep,
+ * and looking up a single variable needs no copying at all.
+ * Like {@link EnvVars}, keys are case-insensitive.
+ */
+public final class LayeredEnvironment {
+
+    /**
+     * Above this many layers, {@link #with(Map)} merges the overrides into a single layer above the base,
+     * so that lookups stay fast even when a script sets variables in a loop.
+     */
+    static final int MAX_DEPTH = 16;
+
+    public static final LayeredEnvironment EMPTY = new LayeredEnvironment(null, Collections.<String,String>emptyMap());
+
+    private final @CheckForNull LayeredEnvironment parent;
+    private final Map<String,String> layer;
+    private final int depth;
+    /** cache of {@link #flatten} */
+    private volatile EnvVars flattened;
+
+    private LayeredEnvironment(@CheckForNull LayeredEnvironment parent, Map<String,String> layer) {
+        this.parent = parent;
+        this.layer = layer;
+        this.depth = parent == null ? 0 : parent.depth + 1;
+    }
+
+    private static Map<String,String> copy(Map<String,String> vars) {
+        Map<String,String> m = new TreeMap<String,String>(String.CASE_INSENSITIVE_ORDER);
+        m.putAll(vars);
+        return Collections.unmodifiableMap(m);
+    }
+
+    /**
+     * Creates a base layer.
+     */
+    public static LayeredEnvironment of(Map<String,String> base) {
+        return new LayeredEnvironment(null, copy(base));
+    }
+
+    /**
+     * Creates a new environment with some variables overridden; this one is unmodified.
+     */
+    public LayeredEnvironment with(Map<String,String> overrides) {
+        if (overrides.isEmpty()) {
+            return this;
+        }
+        if (depth < MAX_DEPTH) {
+            return new LayeredEnvironment(this, copy(overrides));
+        }
+        // collapse everything above the base
+        List<LayeredEnvironment> chain = new ArrayList<LayeredEnvironment>();
+        LayeredEnvironment base = this;
+        while (base.parent != null) {
+            chain.add(base);
+            base = base.parent;
+        }
+        Map<String,String> merged = new TreeMap<String,String>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            merged.putAll(chain.get(i).layer);
+        }
+        merged.putAll(overrides);
+        return new LayeredEnvironment(base, Collections.unmodifiableMap(merged));
+    }
+
+    public LayeredEnvironment with(String name, String value) {
+        return with(Collections.singletonMap(name, value));
+    }
+
+    /**
+     * Looks up one variable, without copying anything.
+     * @return the value from the topmost layer defining it, or null
+     */
+    public @CheckForNull String get(String name) {
+        for (LayeredEnvironment e = this; e != null; e = e.parent) {
+            String v = e.layer.get(name);
+            if (v != null) {
+                return v;
+            }
+        }
+        return null;
+    }
+
+    private EnvVars flatten() {
+        EnvVars f = flattened;
+        if (f == null) {
+            f = parent == null ? new EnvVars() : new EnvVars(parent.flatten());
+            f.putAll(layer);
+            flattened = f;
+        }
+        return f;
+    }
+
+    /**
+     * Produces a regular environment, which the caller may modify.
+     */
+    public EnvVars toEnvVars() {
+        return new EnvVars(flatten());
+    }
+
+}
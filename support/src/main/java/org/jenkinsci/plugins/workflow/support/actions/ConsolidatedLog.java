@@ -0,0 +1,426 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.workflow.support.actions;
+
+import hudson.model.Queue;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.jenkinsci.plugins.workflow.flow.FlowExecutionOwner;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.kohsuke.stapler.framework.io.ByteBuffer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A single log file holding both the output of the build itself and that of all its steps,
+ * plus an index recording which byte ranges were written by which {@link FlowNode}.
+ *
+ * <p>
+ * The log file itself contains nothing but the text, so it can be served as the console of the build as is,
+ * while {@link #read} serves the output of one node by seeking through the ranges recorded in the index.
+ * Consecutive writes from the same node are coalesced into a single index entry,
+ * which is only written out when another node takes over, or on {@link #flush}.
+ *
+ * <p>
+ * The index is a sequence of entries, each being {@link DataOutputStream#writeUTF} of the node ID
+ * followed by the {@code long} offset and {@code int} length of the range.
+ */
+public final class ConsolidatedLog {
+
+    /**
+     * Implemented by a {@link FlowExecutionOwner#getExecutable} which keeps step logs in a {@link ConsolidatedLog}.
+     */
+    public interface Provider {
+        /**
+         * @return the log, or null if this build keeps a separate log file per node
+         */
+        @CheckForNull ConsolidatedLog getConsolidatedLog() throws IOException;
+    }
+
+    private final File log;
+    private final File index;
+
+    /** Null if opened only for reading, or closed. */
+    @GuardedBy("this")
+    private @CheckForNull OutputStream logOut;
+    @GuardedBy("this")
+    private @CheckForNull DataOutputStream indexOut;
+
+    /** Current length of {@link #log}. */
+    @GuardedBy("this")
+    private long position;
+
+    @GuardedBy("this")
+    private final Map<String,List<Range>> ranges = new HashMap<String,List<Range>>();
+
+    /** Range being written to which has not been recorded in {@link #index} yet. */
+    @GuardedBy("this")
+    private @CheckForNull Range open;
+
+    private ConsolidatedLog(File log, File index) {
+        this.log = log;
+        this.index = index;
+    }
+
+    /**
+     * Opens a log for writing.
+     * @param append true to continue an existing log, say after a restart; false to start over
+     */
+    public static ConsolidatedLog open(File log, File index, boolean append) throws IOException {
+        ConsolidatedLog l = new ConsolidatedLog(log, index);
+        if (append) {
+            long complete = l.loadIndex();
+            if (index.length() > complete) {
+                // drop a partial entry left by a crash, or entries appended from here on would be misaligned
+                LOGGER.log(Level.WARNING, "Discarding {0} bytes of incomplete entry at the end of {1}", new Object[] {index.length() - complete, index});
+                RandomAccessFile raf = new RandomAccessFile(index, "rw");
+                try {
+                    raf.setLength(complete);
+                } finally {
+                    raf.close();
+                }
+            }
+        }
+        l.position = append ? log.length() : 0;
+        l.logOut = new FileOutputStream(log, append);
+        l.indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index, append)));
+        return l;
+    }
+
+    /**
+     * Opens a log for reading only, for example that of a completed build.
+     */
+    public static ConsolidatedLog load(File log, File index) throws IOException {
+        ConsolidatedLog l = new ConsolidatedLog(log, index);
+        l.loadIndex();
+        return l;
+    }
+
+    /**
+     * Looks up the log of the build owning a node, if that build uses one.
+     */
+    static @CheckForNull ConsolidatedLog of(FlowNode node) throws IOException {
+        Queue.Executable executable = node.getExecution().getOwner().getExecutable();
+        return executable instanceof Provider ? ((Provider) executable).getConsolidatedLog() : null;
+    }
+
+    /**
+     * Reads all complete entries of the index.
+     * @return the length of the index up to the end of the last complete entry
+     */
+    private synchronized long loadIndex() throws IOException {
+        if (!index.isFile()) {
+            return 0;
+        }
+        CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(index)));
+        DataInputStream in = new DataInputStream(counter);
+        long complete = 0;
+        try {
+            while (true) {
+                String id;
+                long offset;
+                int length;
+                try {
+                    id = in.readUTF();
+                    offset = in.readLong();
+                    length = in.readInt();
+                } catch (EOFException x) {
+                    break; // possibly a partial entry from a crash
+                }
+                addRange(id, new Range(offset, length));
+                complete = counter.getByteCount();
+            }
+        } finally {
+            in.close();
+        }
+        return complete;
+    }
+
+    @GuardedBy("this")
+    private void addRange(String id, Range r) {
+        List<Range> l = ranges.get(id);
+        if (l == null) {
+            l = new ArrayList<Range>();
+            ranges.put(id, l);
+        }
+        l.add(r);
+    }
+
+    /**
+     * Appends text to the log.
+     * @param id the node which produced it, or null for output of the build itself
+     */
+    synchronized void write(@CheckForNull String id, byte[] b, int off, int len) throws IOException {
+        if (logOut == null) {
+            throw new IOException(log + " is closed");
+        }
+        if (len == 0) {
+            return;
+        }
+        logOut.write(b, off, len);
+        if (id != null) {
+            if (open != null && open.id.equals(id) && open.offset + open.length == position && open.length <= Integer.MAX_VALUE - len) {
+                open.length += len;
+            } else {
+                recordOpen();
+                open = new Range(id, position, len);
+                addRange(id, open);
+            }
+        }
+        position += len;
+    }
+
+    @GuardedBy("this")
+    private void recordOpen() throws IOException {
+        if (open != null) {
+            assert indexOut != null;
+            indexOut.writeUTF(open.id);
+            indexOut.writeLong(open.offset);
+            indexOut.writeInt(open.length);
+            open = null;
+        }
+    }
+
+    /**
+     * Writes out the index entry of the node currently writing, if any.
+     */
+    public synchronized void flush() throws IOException {
+        if (indexOut != null) {
+            recordOpen();
+            indexOut.flush();
+        }
+    }
+
+    /**
+     * Stops writing to this log. It can still be {@link #read} afterwards.
+     */
+    public synchronized void close() throws IOException {
+        if (logOut == null) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            logOut.close();
+            logOut = null;
+            assert indexOut != null;
+            indexOut.close();
+            indexOut = null;
+        }
+    }
+
+    /**
+     * A stream which appends to this log on behalf of a node.
+     * Closing it does not close the log.
+     * @param id the node, or null for output of the build itself, in which case closing the stream does close the log
+     */
+    public OutputStream writer(@CheckForNull final String id) {
+        return new OutputStream() {
+            @Override public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+            @Override public void write(byte[] b, int off, int len) throws IOException {
+                ConsolidatedLog.this.write(id, b, off, len);
+            }
+            @Override public void flush() throws IOException {
+                ConsolidatedLog.this.flush();
+            }
+            @Override public void close() throws IOException {
+                if (id == null) {
+                    ConsolidatedLog.this.close();
+                } else {
+                    ConsolidatedLog.this.flush();
+                }
+            }
+        };
+    }
+
+    /**
+     * The text written so far by one node.
+     * Nothing is read up front: the result reads the recorded ranges from the log file when asked,
+     * seeking straight to the requested offset, so it suits progressive display of large logs.
+     * Text written after this call is not included; call again to see it.
+     */
+    public ByteBuffer read(String id) throws IOException {
+        List<Range> l;
+        synchronized (this) {
+            List<Range> all = ranges.get(id);
+            if (all == null) {
+                return new ByteBuffer();
+            }
+            l = new ArrayList<Range>(all);
+            if (logOut != null) {
+                logOut.flush();
+            }
+            // the open range may still grow, so copy its current length
+            if (open != null && open.id.equals(id)) {
+                l.set(l.size() - 1, new Range(open.offset, open.length));
+            }
+        }
+        return new RangesBuffer(log, l.toArray(new Range[l.size()]));
+    }
+
+    /**
+     * Read-only view of some ranges of the log as a {@link ByteBuffer},
+     * which is how {@link hudson.console.AnnotatedLargeText} can be given a source other than a whole file.
+     */
+    private static final class RangesBuffer extends ByteBuffer {
+        private final File log;
+        private final Range[] ranges;
+        private final long length;
+
+        RangesBuffer(File log, Range[] ranges) {
+            this.log = log;
+            this.ranges = ranges;
+            long total = 0;
+            for (Range r : ranges) {
+                total += r.length;
+            }
+            this.length = total;
+        }
+
+        @Override public long length() {
+            return length;
+        }
+
+        @Override public void write(int b) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public void write(byte[] b, int off, int len) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public void writeTo(OutputStream os) throws IOException {
+            InputStream in = newInputStream();
+            try {
+                IOUtils.copy(in, os);
+            } finally {
+                in.close();
+            }
+        }
+
+        @Override public InputStream newInputStream() {
+            return new InputStream() {
+                /** Opened on the first actual read, so skipping costs no I/O. */
+                private RandomAccessFile raf;
+                /** Current range, and position within it. */
+                private int range;
+                private int pos;
+
+                @Override public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+                }
+
+                @Override public int read(byte[] b, int off, int len) throws IOException {
+                    if (len == 0) {
+                        return 0;
+                    }
+                    while (range < ranges.length && pos == ranges[range].length) {
+                        range++;
+                        pos = 0;
+                    }
+                    if (range == ranges.length) {
+                        return -1;
+                    }
+                    if (raf == null) {
+                        raf = new RandomAccessFile(log, "r");
+                    }
+                    Range r = ranges[range];
+                    raf.seek(r.offset + pos);
+                    int n = raf.read(b, off, Math.min(len, r.length - pos));
+                    if (n < 0) {
+                        return -1; // truncated log?
+                    }
+                    pos += n;
+                    return n;
+                }
+
+                @Override public long skip(long n) {
+                    long skipped = 0;
+                    while (skipped < n && range < ranges.length) {
+                        long step = Math.min(n - skipped, ranges[range].length - pos);
+                        pos += step;
+                        skipped += step;
+                        if (pos == ranges[range].length) {
+                            range++;
+                            pos = 0;
+                        }
+                    }
+                    return skipped;
+                }
+
+                @Override public void close() throws IOException {
+                    if (raf != null) {
+                        raf.close();
+                        raf = null;
+                    }
+                }
+            };
+        }
+
+        @Override public String toString() {
+            return "ranges of " + log;
+        }
+    }
+
+    private static final class Range {
+        final String id;
+        final long offset;
+        int length;
+
+        Range(String id, long offset, int length) {
+            this.id = id;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        Range(long offset, int length) {
+            this(null, offset, length);
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ConsolidatedLog.class.getName());
+}
@@ -40,7 +40,8 @@ import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
 
 /**
- * {@link LogAction} implementation that stores per-node log file under {@link FlowExecutionOwner#getRootDir()}.
+ * {@link LogAction} implementation that stores per-node log file under {@link FlowExecutionOwner#getRootDir()},
+ * or, if the build has one, in its {@link ConsolidatedLog}.
  *
  * @author Kohsuke Kawaguchi
  */
@@ -64,6 +65,10 @@ public class LogActionImpl extends LogAction implements FlowNodeAction {
     @Override
     public AnnotatedLargeText<? extends FlowNode> getLogText() {
         try {
+            ConsolidatedLog consolidated = ConsolidatedLog.of(parent);
+            if (consolidated != null) {
+                return new AnnotatedLargeText<FlowNode>(consolidated.read(parent.getId()), getCharset(), !parent.isRunning(), parent);
+            }
             getLogFile();
             if (!log.exists())
                 return new AnnotatedLargeText<FlowNode>(new ByteBuffer(), getCharset(), !parent.isRunning(), parent);
@@ -85,7 +90,7 @@ public class LogActionImpl extends LogAction implements FlowNodeAction {
     }
 
     /**
-     * The actual log file.
+     * The actual log file, unless the build uses a {@link ConsolidatedLog}.
      */
     public File getLogFile() throws IOException {
         if (log==null)
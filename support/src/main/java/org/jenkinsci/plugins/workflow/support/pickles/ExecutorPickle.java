@@ -27,15 +27,23 @@ package org.jenkinsci.plugins.workflow.support.pickles;
 import org.jenkinsci.plugins.workflow.pickles.Pickle;
 import org.jenkinsci.plugins.workflow.support.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import hudson.Extension;
 import hudson.model.Computer;
 import hudson.model.Executor;
+import hudson.model.Label;
 import hudson.model.Node;
 import hudson.model.OneOffExecutor;
 import hudson.model.Queue;
 import hudson.model.queue.SubTask;
 import jenkins.model.Jenkins;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
 
 /**
@@ -72,32 +80,90 @@ public class ExecutorPickle extends Pickle {
 
         final Future<Queue.Executable> future = item.getFuture().getStartCondition();
 
-        return new TryRepeatedly<Executor>(1) {
-            @Override
-            protected Executor tryResolve() throws Exception {
-                if (!future.isDone()) {
-                    return null;
-                }
+        final Resolver resolver = new Resolver(future);
+        waiting.put(task, resolver);
+        resolver.addListener(new Runnable() {
+            @Override public void run() {
+                waiting.remove(task, resolver);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return resolver;
+    }
 
-                Queue.Executable exec = future.get();
+    /** tasks rescheduled by {@link #rehydrate} which have not yet started */
+    private static final ConcurrentMap<Queue.Task,Resolver> waiting = new ConcurrentHashMap<Queue.Task,Resolver>();
 
-                Jenkins j = Jenkins.getInstance();
-                if (j == null) {
-                    return null;
-                }
-                for (Computer c : j.getComputers()) {
-                    for (Executor e : c.getExecutors()) {
-                        if (e.getCurrentExecutable() == exec) {
-                            return e;
-                        }
+    /**
+     * Should be called by a {@link Queue.Executable} as soon as it starts running on an executor,
+     * so that a rehydrated pickle of its task can be resolved right away rather than when next polled.
+     * Does nothing if no pickle is waiting for that task.
+     */
+    public static void executableStarted(Queue.Executable exec, Executor executor) {
+        SubTask parent = exec.getParent();
+        Queue.Task task = parent instanceof Queue.Task ? (Queue.Task) parent : parent.getOwnerTask();
+        Resolver resolver = waiting.remove(task);
+        if (resolver != null) {
+            resolver.started(executor);
+        }
+    }
+
+    private final class Resolver extends TryRepeatedly<Executor> {
+
+        private final Future<Queue.Executable> future;
+
+        Resolver(Future<Queue.Executable> future) {
+            // executables which call executableStarted resolve us directly, so polling is only a fallback
+            super(TryRepeatedly.FALLBACK_PERIOD, 1);
+            this.future = future;
+        }
+
+        void started(Executor executor) {
+            set(executor);
+        }
+
+        @Override
+        protected Executor tryResolve() throws Exception {
+            if (future == null || !future.isDone()) { // null if the first attempt races the constructor
+                return null;
+            }
+
+            Queue.Executable exec = future.get();
+
+            Jenkins j = Jenkins.getInstance();
+            if (j == null) {
+                return null;
+            }
+            for (Computer c : candidates(j)) {
+                for (Executor e : c.getExecutors()) {
+                    if (e.getCurrentExecutable() == exec) {
+                        return e;
                     }
                 }
+            }
+
+            // TODO this could happen as a race condition if the executable takes <1s to run; how could that be prevented?
+            // Or can we schedule a placeholder Task whose Executable does nothing but return Executor.currentExecutor and then end?
+            throw new IllegalStateException(exec + " was scheduled but no executor claimed it");
+        }
+    }
 
-                // TODO this could happen as a race condition if the executable takes <1s to run; how could that be prevented?
-                // Or can we schedule a placeholder Task whose Executable does nothing but return Executor.currentExecutor and then end?
-                throw new IllegalStateException(exec + " was scheduled but no executor claimed it");
+    /**
+     * Computers which could be running {@link #task}.
+     * Normally it is bound to a single node, so there is no need to look through every executor in the system.
+     */
+    private Collection<Computer> candidates(Jenkins j) {
+        Label label = task.getAssignedLabel();
+        if (label == null) {
+            return Arrays.asList(j.getComputers());
+        }
+        List<Computer> computers = new ArrayList<Computer>();
+        for (Node n : label.getNodes()) {
+            Computer c = n.toComputer();
+            if (c != null) {
+                computers.add(c);
             }
-        };
+        }
+        return computers;
     }
 
     @Extension public static final class Factory extends SingleTypedPickleFactory<Executor> {
@@ -58,7 +58,7 @@ public class FilePathPickle extends Pickle {
 
     @Override
     public ListenableFuture<FilePath> rehydrate() {
-        return new TryRepeatedly<FilePath>(1) {
+        return new TryRepeatedly<FilePath>(TryRepeatedly.FALLBACK_PERIOD, 0) {
             @Override
             protected FilePath tryResolve() {
                 Jenkins j = Jenkins.getInstance();
@@ -26,51 +26,153 @@ package org.jenkinsci.plugins.workflow.support.pickles;
 
 import com.google.common.util.concurrent.AbstractFuture;
 import com.google.common.util.concurrent.ListenableFuture;
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
 import jenkins.util.Timer;
 
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.GuardedBy;
 
 /**
  * {@link ListenableFuture} that promises a value that needs to be periodically tried.
  *
+ * <p>
+ * Where possible, something which knows that the value may now be available should call {@link #retryNow}
+ * (or {@link #retryAll}), in which case the period merely serves as a fallback.
+ *
  * @author Kohsuke Kawaguchi
  */
 public abstract class TryRepeatedly<V> extends AbstractFuture<V> {
-    private final int seconds;
-    private ScheduledFuture<?> next;
 
-    protected TryRepeatedly(int seconds) {
-        this.seconds = seconds;
-        tryLater();
-    }
+    /**
+     * Polling period, in seconds, for pickles which are also told when to try again.
+     */
+    static final int FALLBACK_PERIOD = Integer.getInteger(TryRepeatedly.class.getName() + ".fallbackPeriod", 10);
 
-    private void tryLater() {
-        // TODO log a warning if trying for too long; probably Pickle.rehydrate should be given a TaskListener to note progress
+    /** all instances not yet done */
+    private static final Set<TryRepeatedly<?>> pending = Collections.newSetFromMap(new ConcurrentHashMap<TryRepeatedly<?>,Boolean>());
+
+    private final int seconds;
+    /** the attempt scheduled to run next, if any */
+    @GuardedBy("this")
+    private Attempt next;
+    @GuardedBy("this")
+    private ScheduledFuture<?> nextFuture;
 
-        if (isCancelled())      return;
+    /** held while calling {@link #tryResolve}, which should never be called concurrently */
+    private final Object attemptLock = new Object();
 
-        next = Timer.get().schedule(new Runnable() {
-            @Override
-            public void run() {
+    private final class Attempt implements Runnable {
+        @Override
+        public void run() {
+            synchronized (TryRepeatedly.this) {
+                if (next != this) {
+                    return; // superseded by retryNow
+                }
+                next = null;
+            }
+            synchronized (attemptLock) {
+                if (isDone()) {
+                    return;
+                }
                 try {
                     V v = tryResolve();
                     if (v == null)
-                        tryLater();
+                        tryLater(seconds);
                     else
                         set(v);
                 } catch (Throwable t) {
                     setException(t);
                 }
             }
-        }, seconds, TimeUnit.SECONDS);
+        }
+    }
+
+    protected TryRepeatedly(int seconds) {
+        this(seconds, seconds);
+    }
+
+    /**
+     * @param seconds period between attempts
+     * @param initialDelay delay before the first attempt, in seconds
+     */
+    protected TryRepeatedly(int seconds, int initialDelay) {
+        this.seconds = seconds;
+        pending.add(this);
+        tryLater(initialDelay);
+    }
+
+    private synchronized void tryLater(int delay) {
+        // TODO log a warning if trying for too long; probably Pickle.rehydrate should be given a TaskListener to note progress
+
+        if (isDone() || next != null)      return;
+
+        schedule(delay);
+    }
+
+    @GuardedBy("this")
+    private void schedule(int delay) {
+        next = new Attempt();
+        nextFuture = Timer.get().schedule(next, delay, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Makes the next attempt right away rather than at the end of the current period.
+     * Does nothing if the value was already resolved.
+     */
+    public synchronized void retryNow() {
+        if (isDone()) {
+            return;
+        }
+        if (nextFuture != null) {
+            nextFuture.cancel(false);
+        }
+        schedule(0);
+    }
+
+    /**
+     * Calls {@link #retryNow} on all pending instances, such as when an agent comes online.
+     */
+    public static void retryAll() {
+        for (TryRepeatedly<?> t : pending) {
+            t.retryNow();
+        }
+    }
+
+    /**
+     * Number of instances still trying.
+     */
+    public static int getPendingCount() {
+        return pending.size();
+    }
+
+    @Override
+    protected boolean set(V value) {
+        pending.remove(this);
+        return super.set(value);
+    }
+
+    @Override
+    protected boolean setException(Throwable throwable) {
+        pending.remove(this);
+        return super.setException(throwable);
     }
 
     @Override
     public boolean cancel(boolean mayInterruptIfRunning) {
-        if (next!=null)
-            next.cancel(mayInterruptIfRunning);
+        pending.remove(this);
+        synchronized (this) {
+            if (nextFuture!=null)
+                nextFuture.cancel(mayInterruptIfRunning);
+            next = null;
+        }
         return super.cancel(mayInterruptIfRunning);
     }
 
@@ -83,4 +185,16 @@ public abstract class TryRepeatedly<V> extends AbstractFuture<V> {
      *      Any exception thrown will cause the future to fail.
      */
     protected abstract @CheckForNull V tryResolve() throws Exception;
+
+    /**
+     * Tries again whenever an agent comes online or the set of nodes changes, since many pickles wait for one.
+     */
+    @Extension public static final class Retrier extends ComputerListener {
+        @Override public void onOnline(Computer c, TaskListener listener) {
+            retryAll();
+        }
+        @Override public void onConfigurationChange() {
+            retryAll();
+        }
+    }
 }
@@ -31,7 +31,11 @@ import com.google.common.util.concurrent.ListenableFuture;
 import org.jboss.marshalling.ObjectResolver;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * {@link ObjectResolver} that resolves {@link DryCapsule} to unpickled objects.
@@ -49,6 +53,11 @@ public class PickleResolver implements ObjectResolver {
      */
     private List<Object> values;
 
+    /**
+     * Members of {@link #pickles} whose rehydration has not yet completed.
+     */
+    private final Set<Pickle> pending = Collections.newSetFromMap(new ConcurrentHashMap<Pickle,Boolean>());
+
     public PickleResolver(List<? extends Pickle> pickles) {
         this.pickles = pickles;
     }
@@ -63,11 +72,13 @@ public class PickleResolver implements ObjectResolver {
             return Futures.immediateFuture(this);
 
         List<ListenableFuture<?>> members = new ArrayList<ListenableFuture<?>>();
-        for (Pickle r : pickles) {
+        pending.addAll(pickles);
+        for (final Pickle r : pickles) {
             // TODO log("rehydrating " + r);
             members.add(Futures.transform(r.rehydrate(), new Function<Object,Object>() {
                 @Override public Object apply(Object input) {
                     // TODO log("rehydrated to " + input);
+                    pending.remove(r);
                     return input;
                 }
             }));
@@ -83,6 +94,27 @@ public class PickleResolver implements ObjectResolver {
         });
     }
 
+    /**
+     * Total number of pickles being restored.
+     */
+    public int getPickleCount() {
+        return pickles.size();
+    }
+
+    /**
+     * Number of pickles still waiting to be rehydrated, such as executors on an agent which is not yet online.
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Pickles still waiting to be rehydrated.
+     */
+    public Collection<Pickle> getPending() {
+        return Collections.unmodifiableSet(pending);
+    }
+
     public Object readResolve(Object o) {
         if (o instanceof DryCapsule) {
             DryCapsule cap = (DryCapsule) o;
@@ -45,6 +45,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
+import javax.annotation.CheckForNull;
 
 import static org.apache.commons.io.IOUtils.*;
 
@@ -67,6 +68,11 @@ public class RiverReader {
      */
     private final FlowExecutionOwner owner;
 
+    /**
+     * Set by {@link #restorePickles}.
+     */
+    private volatile PickleResolver pickleResolver;
+
     /**
      * {@link ObjectResolver} that replaces {@link DryOwner} by the actual owner.
      */
@@ -115,6 +121,7 @@ public class RiverReader {
         // load the pickle stream
         List<Pickle> pickles = readPickles(offset);
         final PickleResolver evr = new PickleResolver(pickles);
+        pickleResolver = evr;
 
         // prepare the unmarshaller to load the main stream, by using yet-fulfilled PickleResolver
         MarshallingConfiguration config = new MarshallingConfiguration();
@@ -132,6 +139,14 @@ public class RiverReader {
         });
     }
 
+    /**
+     * Allows the progress of rehydration to be tracked.
+     * @return the resolver, once {@link #restorePickles} has been called
+     */
+    public @CheckForNull PickleResolver getPickleResolver() {
+        return pickleResolver;
+    }
+
     private List<Pickle> readPickles(int offset) throws IOException {
         BufferedInputStream es = openStreamAt(offset);
         try {
@@ -2,6 +2,7 @@ package org.jenkinsci.plugins.workflow.support.steps;
 
 import com.google.inject.Inject;
 import hudson.EnvVars;
+import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
 import hudson.model.Computer;
@@ -16,6 +17,7 @@ import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.model.TopLevelItem;
 import hudson.model.queue.CauseOfBlockage;
+import hudson.model.queue.QueueListener;
 import hudson.model.queue.SubTask;
 import hudson.remoting.ChannelClosedException;
 import hudson.remoting.RequestAbortedException;
@@ -27,9 +29,10 @@ import java.io.PrintStream;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import javax.annotation.CheckForNull;
@@ -45,6 +48,7 @@ import org.jenkinsci.plugins.workflow.steps.BodyExecutionCallback;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
 import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
 import org.jenkinsci.plugins.workflow.support.actions.WorkspaceActionImpl;
+import org.jenkinsci.plugins.workflow.support.pickles.ExecutorPickle;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.DoNotUse;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
@@ -101,27 +105,24 @@ public class ExecutorStepExecution extends AbstractStepExecutionImpl {
 
     @Override
     public void stop(Throwable cause) {
-        for (Queue.Item item : Queue.getInstance().getItems()) {
-            // if we are still in the queue waiting to be scheduled, just retract that
-            if (item.task instanceof PlaceholderTask && ((PlaceholderTask) item.task).context.equals(getContext())) {
-                Queue.getInstance().cancel(item);
-                break;
-            }
-        }
-        Jenkins j = Jenkins.getInstance();
-        if (j != null) {
-            // if we are already running, kill the ongoing activities, which releases PlaceholderExecutable from its sleep loop
-            // Similar to Run.getExecutor (and proposed Executables.getExecutor), but distinct since we do not have the Executable yet:
-            COMPUTERS: for (Computer c : j.getComputers()) {
-                for (Executor e : c.getExecutors()) {
-                    Queue.Executable exec = e.getCurrentExecutable();
-                    if (exec instanceof PlaceholderTask.PlaceholderExecutable && ((PlaceholderTask.PlaceholderExecutable) exec).getParent().context.equals(getContext())) {
-                        PlaceholderTask.finish(((PlaceholderTask.PlaceholderExecutable) exec).getParent().cookie);
-                        break COMPUTERS;
-                    }
+        // if we are still in the queue waiting to be scheduled, just retract that
+        Queue.Item item = PlaceholderTask.queuedTasks.get(getContext());
+        String cookie = PlaceholderTask.cookies.get(getContext());
+        if (item != null) {
+            Queue.getInstance().cancel(item);
+        } else if (cookie == null) {
+            // perhaps an item loaded from queue.xml, which QueueIndex was not told about
+            for (Queue.Item i : Queue.getInstance().getItems()) {
+                if (i.task instanceof PlaceholderTask && ((PlaceholderTask) i.task).context.equals(getContext())) {
+                    Queue.getInstance().cancel(i);
+                    break;
                 }
             }
         }
+        if (cookie != null) {
+            // if we are already running, kill the ongoing activities, which releases PlaceholderExecutable from its wait
+            PlaceholderTask.finish(cookie);
+        }
         // Whether or not either of the above worked (and they would not if for example our item were canceled), make sure we die.
         getContext().onFailure(cause);
         // TODO also would like to listen for our queue item being canceled directly (Queue.cancel(Item)) and interrupt automatically,
@@ -132,8 +133,14 @@ public class ExecutorStepExecution extends AbstractStepExecutionImpl {
     private static final class PlaceholderTask implements ContinuedTask, Serializable {
 
         // TODO can this be replaced with StepExecutionIterator?
-        /** map from cookies to contexts of tasks thought to be running */
-        private static final Map<String,StepContext> runningTasks = new HashMap<String,StepContext>();
+        /** map from cookies to tasks thought to be running */
+        private static final ConcurrentMap<String,RunningTask> runningTasks = new ConcurrentHashMap<String,RunningTask>();
+
+        /** map from contexts to cookies of tasks in {@link #runningTasks}, so {@link #stop} need not look through all executors */
+        private static final ConcurrentMap<StepContext,String> cookies = new ConcurrentHashMap<StepContext,String>();
+
+        /** map from contexts to the current queue items of tasks not yet started, maintained by {@link QueueIndex} */
+        private static final ConcurrentMap<StepContext,Queue.Item> queuedTasks = new ConcurrentHashMap<StepContext,Queue.Item>();
 
         private final StepContext context;
         private String label;
@@ -154,9 +161,7 @@ public class ExecutorStepExecution extends AbstractStepExecutionImpl {
         private Object readResolve() {
             LOGGER.log(FINE, "deserialized {0}", cookie);
             if (cookie != null) {
-                synchronized (runningTasks) {
-                    runningTasks.put(cookie, context);
-                }
+                start(cookie, context);
             }
             return this;
         }
@@ -314,13 +319,32 @@ public class ExecutorStepExecution extends AbstractStepExecutionImpl {
             if (cookie == null) {
                 return null;
             }
-            synchronized (runningTasks) {
-                StepContext context = runningTasks.remove(cookie);
-                if (context == null) {
-                    LOGGER.log(FINE, "no running task corresponds to {0}", cookie);
-                }
-                runningTasks.notifyAll();
-                return context;
+            RunningTask task = runningTasks.remove(cookie);
+            if (task == null) {
+                LOGGER.log(FINE, "no running task corresponds to {0}", cookie);
+                return null;
+            }
+            cookies.remove(task.context, cookie);
+            task.done.countDown(); // wakes up only the executor of this task
+            return task.context;
+        }
+
+        private static void start(String cookie, StepContext context) {
+            if (runningTasks.putIfAbsent(cookie, new RunningTask(context)) == null) {
+                cookies.put(context, cookie);
+            }
+        }
+
+        /**
+         * A task thought to be running, with a latch released when its body is done.
+         * Each {@link PlaceholderExecutable} waits on its own latch, so finishing one block does not wake up every other one.
+         */
+        private static final class RunningTask {
+            final StepContext context;
+            final CountDownLatch done = new CountDownLatch(1);
+
+            RunningTask(StepContext context) {
+                this.context = context;
             }
         }
 
@@ -367,12 +391,17 @@ public class ExecutorStepExecution extends AbstractStepExecutionImpl {
 
             private static final String COOKIE_VAR = "JENKINS_SERVER_COOKIE";
 
+            /** the executor running this, so {@link #getExecutor} need not look through all of them */
+            private transient volatile Executor executor;
+
             @Override public void run() {
                 try {
                     Executor exec = Executor.currentExecutor();
                     if (exec == null) {
                         throw new IllegalStateException("running task without associated executor thread");
                     }
+                    executor = exec;
+                    ExecutorPickle.executableStarted(this, exec);
                     Computer computer = exec.getOwner();
                     // Set up context for other steps inside this one.
                     Node node = computer.getNode();
@@ -389,9 +418,7 @@ public class ExecutorStepExecution extends AbstractStepExecutionImpl {
                         label = computer.getName();
                         EnvVars env = computer.buildEnvironment(listener);
                         env.put(COOKIE_VAR, cookie);
-                        synchronized (runningTasks) {
-                            runningTasks.put(cookie, context);
-                        }
+                        start(cookie, context);
                         // For convenience, automatically allocate a workspace, like WorkspaceStep would:
                         Job<?,?> j = r.getParent();
                         if (!(j instanceof TopLevelItem)) {
@@ -418,23 +445,22 @@ public class ExecutorStepExecution extends AbstractStepExecutionImpl {
                     }
                     try {
                         // wait until the invokeBodyLater call above completes and notifies our Callback object
-                        synchronized (runningTasks) {
-                            while (runningTasks.containsKey(cookie)) {
-                                LOGGER.log(FINE, "waiting on {0}", cookie);
-                                try {
-                                    runningTasks.wait();
-                                } catch (InterruptedException x) {
-                                    if (Jenkins.getInstance() != null) {
-                                        LOGGER.log(FINE, "interrupted {0} as by Executor.doStop", cookie);
-                                        // TODO we would like an API to StepExecution.stop the tip of our body
-                                        try {
-                                            exec.recordCauseOfInterruption(r, listener);
-                                        } catch (RuntimeException x2) {
-                                            LOGGER.log(WARNING, null, x2);
-                                        }
-                                    } else {
-                                        LOGGER.log(FINE, "normal Jenkins shutdown in {0}", cookie);
+                        RunningTask task;
+                        while ((task = runningTasks.get(cookie)) != null) {
+                            LOGGER.log(FINE, "waiting on {0}", cookie);
+                            try {
+                                task.done.await();
+                            } catch (InterruptedException x) {
+                                if (Jenkins.getInstance() != null) {
+                                    LOGGER.log(FINE, "interrupted {0} as by Executor.doStop", cookie);
+                                    // TODO we would like an API to StepExecution.stop the tip of our body
+                                    try {
+                                        exec.recordCauseOfInterruption(r, listener);
+                                    } catch (RuntimeException x2) {
+                                        LOGGER.log(WARNING, null, x2);
                                     }
+                                } else {
+                                    LOGGER.log(FINE, "normal Jenkins shutdown in {0}", cookie);
                                 }
                             }
                         }
@@ -461,25 +487,13 @@ public class ExecutorStepExecution extends AbstractStepExecutionImpl {
             }
 
             @Override public boolean willContinue() {
-                synchronized (runningTasks) {
-                    return runningTasks.containsKey(cookie);
-                }
+                return cookie != null && runningTasks.containsKey(cookie);
             }
 
             @Restricted(DoNotUse.class) // for Jelly
             public @CheckForNull Executor getExecutor() {
-                Jenkins j = Jenkins.getInstance();
-                if (j == null) {
-                    return null;
-                }
-                for (Computer c : j.getComputers()) {
-                    for (Executor e : c.getExecutors()) {
-                        if (e.getCurrentExecutable() == this) {
-                            return e;
-                        }
-                    }
-                }
-                return null;
+                Executor e = executor;
+                return e != null && e.getCurrentExecutable() == this ? e : null;
             }
 
             @Restricted(NoExternalUse.class) // for Jelly and toString
@@ -495,6 +509,38 @@ public class ExecutorStepExecution extends AbstractStepExecutionImpl {
         }
     }
 
+    /**
+     * Keeps {@link PlaceholderTask#queuedTasks} up to date.
+     * Each state change of a queue item produces a new {@link Queue.Item}, so the latest one is recorded.
+     */
+    @Extension public static final class QueueIndex extends QueueListener {
+
+        @Override public void onEnterWaiting(Queue.WaitingItem wi) {
+            update(wi);
+        }
+
+        @Override public void onEnterBlocked(Queue.BlockedItem bi) {
+            update(bi);
+        }
+
+        @Override public void onEnterBuildable(Queue.BuildableItem bi) {
+            update(bi);
+        }
+
+        @Override public void onLeft(Queue.LeftItem li) {
+            if (li.task instanceof PlaceholderTask) {
+                PlaceholderTask.queuedTasks.remove(((PlaceholderTask) li.task).context);
+            }
+        }
+
+        private static void update(Queue.Item item) {
+            if (item.task instanceof PlaceholderTask) {
+                PlaceholderTask.queuedTasks.put(((PlaceholderTask) item.task).context, item);
+            }
+        }
+
+    }
+
     private static final long serialVersionUID = 1L;
 
     private static final Logger LOGGER = Logger.getLogger(ExecutorStepExecution.class.getName());
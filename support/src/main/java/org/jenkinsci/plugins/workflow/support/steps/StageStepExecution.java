@@ -12,17 +12,24 @@ import hudson.model.listeners.RunListener;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import static java.util.logging.Level.WARNING;
 import java.util.logging.Logger;
 import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import jenkins.model.CauseOfInterruption;
 import jenkins.model.Jenkins;
 import org.jenkinsci.plugins.workflow.actions.LabelAction;
@@ -66,7 +73,10 @@ public class StageStepExecution extends AbstractStepExecutionImpl {
         throw new UnsupportedOperationException();
     }
 
-    private static XmlFile getConfigFile() throws IOException {
+    /**
+     * Location of the stage state of all jobs as kept by older versions; migrated to {@link #getConfigFile(Job)} on first use.
+     */
+    private static XmlFile getLegacyConfigFile() throws IOException {
         Jenkins j = Jenkins.getInstance();
         if (j == null) {
             throw new IOException("Jenkins is not running");
@@ -74,153 +84,382 @@ public class StageStepExecution extends AbstractStepExecutionImpl {
         return new XmlFile(new File(j.getRootDir(), StageStep.class.getName() + ".xml"));
     }
 
+    private static XmlFile getConfigFile(Job<?,?> job) {
+        return new XmlFile(new File(job.getRootDir(), StageStep.class.getName() + ".xml"));
+    }
+
     // TODO can this be replaced with StepExecutionIterator?
-    private static Map<String,Map<String,Stage>> stagesByNameByJob;
+    /**
+     * Stage state by job full name.
+     * Each {@link JobStages} is its own lock, so builds of different jobs never contend.
+     */
+    private static final ConcurrentMap<String,JobStages> stagesByJob = new ConcurrentHashMap<String,JobStages>();
+
+    private static volatile boolean migrated;
 
     // TODO or delete and make this an instance field in DescriptorImpl
     public static void clear() {
-        stagesByNameByJob = null;
+        stagesByJob.clear();
+        migrated = false;
     }
 
+    /**
+     * Splits the old global file into per-job files.
+     */
     @SuppressWarnings("unchecked")
-    private static synchronized void load() {
-        if (stagesByNameByJob == null) {
-            stagesByNameByJob = new TreeMap<String,Map<String,Stage>>();
-            try {
-                XmlFile configFile = getConfigFile();
-                if (configFile.exists()) {
-                    stagesByNameByJob = (Map<String,Map<String,Stage>>) configFile.read();
+    private static synchronized void migrate() {
+        if (migrated) {
+            return;
+        }
+        migrated = true;
+        try {
+            XmlFile legacy = getLegacyConfigFile();
+            if (!legacy.exists()) {
+                return;
+            }
+            Map<String,Map<String,Stage>> stagesByNameByJob = (Map<String,Map<String,Stage>>) legacy.read();
+            Jenkins j = Jenkins.getInstance();
+            for (Map.Entry<String,Map<String,Stage>> entry : stagesByNameByJob.entrySet()) {
+                Job<?,?> job = j != null ? j.getItemByFullName(entry.getKey(), Job.class) : null;
+                if (job == null) {
+                    LOGGER.log(WARNING, "Dropping stage state of apparently deleted {0}", entry.getKey());
+                    continue;
                 }
-            } catch (IOException x) {
-                LOGGER.log(WARNING, null, x);
+                getConfigFile(job).write(entry.getValue());
             }
-            LOGGER.log(Level.FINE, "load: {0}", stagesByNameByJob);
+            if (!legacy.getFile().delete()) {
+                LOGGER.log(WARNING, "could not delete {0}", legacy);
+            }
+        } catch (IOException x) {
+            LOGGER.log(WARNING, null, x);
         }
     }
 
-    private static synchronized void save() {
-        try {
-            getConfigFile().write(stagesByNameByJob);
-        } catch (IOException x) {
-            LOGGER.log(WARNING, null, x);
+    /**
+     * Looks up the stage state of a job, loading it if necessary.
+     * @param create whether to create it if the job has none
+     */
+    private static @CheckForNull JobStages forJob(Job<?,?> job, boolean create) {
+        String jobName = job.getFullName();
+        JobStages stages = stagesByJob.get(jobName);
+        if (stages != null) {
+            return stages;
+        }
+        if (!migrated) {
+            migrate();
         }
-        LOGGER.log(Level.FINE, "save: {0}", stagesByNameByJob);
+        XmlFile configFile = getConfigFile(job);
+        if (!create && !configFile.exists()) {
+            return null;
+        }
+        stages = new JobStages(job, configFile);
+        stages.load();
+        JobStages existing = stagesByJob.putIfAbsent(jobName, stages);
+        return existing != null ? existing : stages;
     }
 
-    private static synchronized void enter(Run<?,?> r, StepContext context, String name, Integer concurrency) {
+    private static void enter(Run<?,?> r, StepContext context, String name, Integer concurrency) {
         LOGGER.log(Level.FINE, "enter {0} {1}", new Object[] {r, name});
         println(context, "Entering stage " + name);
-        load();
-        Job<?,?> job = r.getParent();
-        String jobName = job.getFullName();
-        Map<String,Stage> stagesByName = stagesByNameByJob.get(jobName);
-        if (stagesByName == null) {
-            stagesByName = new TreeMap<String,Stage>();
-            stagesByNameByJob.put(jobName, stagesByName);
-        }
-        Stage stage = stagesByName.get(name);
-        if (stage == null) {
-            stage = new Stage();
-            stagesByName.put(name, stage);
-        }
-        stage.concurrency = concurrency;
-        int build = r.number;
-        if (stage.waitingContext != null) {
-            // Someone has got to give up.
-            if (stage.waitingBuild < build) {
-                // Cancel the older one.
+        JobStages stages = forJob(r.getParent(), true);
+        assert stages != null;
+        stages.enter(r, context, name, concurrency);
+    }
+
+    private static void exit(Run<?,?> r) {
+        JobStages stages = forJob(r.getParent(), false);
+        if (stages != null) {
+            stages.exit(r, "Unblocked since " + r.getDisplayName() + " finished");
+        }
+    }
+
+    /**
+     * Stage state of one job.
+     */
+    private static final class JobStages {
+        private final String jobName;
+        private final XmlFile configFile;
+        /** Persisted in {@link #configFile}. */
+        @GuardedBy("this")
+        private Map<String,Stage> stagesByName = new TreeMap<String,Stage>();
+        /** Stage held by each build, derived from {@link Stage#holding}. */
+        @GuardedBy("this")
+        private final Map<Integer,String> stageByBuild = new HashMap<Integer,String>();
+        /** Not persisted. */
+        @GuardedBy("this")
+        private final Map<String,StageStatistics> statistics = new TreeMap<String,StageStatistics>();
+        /** Only used until {@link #load} is done. */
+        private Job<?,?> job;
+
+        JobStages(Job<?,?> job, XmlFile configFile) {
+            this.job = job;
+            this.jobName = job.getFullName();
+            this.configFile = configFile;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized void load() {
+            if (configFile.exists()) {
                 try {
-                    cancel(stage.waitingContext, context);
-                } catch (Exception x) {
-                    LOGGER.log(WARNING, "could not cancel an older flow (perhaps since deleted?)", x);
+                    stagesByName = (Map<String,Stage>) configFile.read();
+                } catch (IOException x) {
+                    LOGGER.log(WARNING, null, x);
                 }
-            } else if (stage.waitingBuild > build) {
-                // Cancel this one. And work with the older one below, instead of the one initiating this call.
-                try {
-                    cancel(context, stage.waitingContext);
-                } catch (Exception x) {
-                    LOGGER.log(WARNING, "could not cancel the current flow", x);
+            }
+            Iterator<Entry<String,Stage>> it = stagesByName.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String,Stage> entry = it.next();
+                Iterator<Integer> it2 = entry.getValue().holding.iterator();
+                while (it2.hasNext()) {
+                    Integer number = it2.next();
+                    // only done once, since the RunListener takes care of builds deleted while we are running
+                    if (job.getBuildByNumber(number) == null) {
+                        LOGGER.log(WARNING, "Cleaning up apparently deleted {0}#{1}", new Object[] {jobName, number});
+                        it2.remove();
+                    } else {
+                        stageByBuild.put(number, entry.getKey());
+                    }
                 }
-                build = stage.waitingBuild;
-                context = stage.waitingContext;
-            } else {
-                throw new IllegalStateException("the same flow is trying to reënter the stage " + name); // see 'e' with two dots, that's Jesse Glick for you! - KK
+                prune(entry.getKey(), entry.getValue(), it);
             }
+            job = null;
+            LOGGER.log(Level.FINE, "load {0}: {1}", new Object[] {jobName, stagesByName});
         }
-        for (Map.Entry<String,Stage> entry : stagesByName.entrySet()) {
-            if (entry.getKey().equals(name)) {
-                continue;
+
+        private synchronized void save() {
+            try {
+                if (stagesByName.isEmpty()) {
+                    if (configFile.exists() && !configFile.getFile().delete()) {
+                        LOGGER.log(WARNING, "could not delete {0}", configFile);
+                    }
+                } else {
+                    configFile.write(stagesByName);
+                }
+            } catch (IOException x) {
+                LOGGER.log(WARNING, null, x);
             }
-            Stage stage2 = entry.getValue();
-            // If we were holding another stage in the same job, release it, unlocking its waiter to proceed.
-            if (stage2.holding.remove(build)) {
-                if (stage2.waitingContext != null) {
-                    stage2.unblock("Unblocked since " + r.getDisplayName() + " is moving into stage " + name);
+            LOGGER.log(Level.FINE, "save {0}: {1}", new Object[] {jobName, stagesByName});
+        }
+
+        synchronized void enter(Run<?,?> r, StepContext context, String name, Integer concurrency) {
+            Stage stage = stagesByName.get(name);
+            if (stage == null) {
+                stage = new Stage();
+                stagesByName.put(name, stage);
+            }
+            stage.concurrency = concurrency;
+            int build = r.number;
+            if (stage.waitingContext != null) {
+                // Someone has got to give up.
+                if (stage.waitingBuild < build) {
+                    // Cancel the older one.
+                    try {
+                        cancel(stage.waitingContext, context);
+                    } catch (Exception x) {
+                        LOGGER.log(WARNING, "could not cancel an older flow (perhaps since deleted?)", x);
+                    }
+                    stats(name).waitEnded(stage);
+                } else if (stage.waitingBuild > build) {
+                    // Cancel this one. And work with the older one below, instead of the one initiating this call.
+                    try {
+                        cancel(context, stage.waitingContext);
+                    } catch (Exception x) {
+                        LOGGER.log(WARNING, "could not cancel the current flow", x);
+                    }
+                    build = stage.waitingBuild;
+                    context = stage.waitingContext;
+                } else {
+                    throw new IllegalStateException("the same flow is trying to reënter the stage " + name); // see 'e' with two dots, that's Jesse Glick for you! - KK
                 }
             }
+            // If we were holding another stage in the same job, release it, unlocking its waiter to proceed.
+            if (!name.equals(stageByBuild.get(build))) {
+                release(build, "Unblocked since " + r.getDisplayName() + " is moving into stage " + name);
+            }
+            if (stage.waitingContext == null || stage.waitingBuild != build) {
+                stage.waitingSince = System.currentTimeMillis();
+            }
+            stage.waitingBuild = build;
+            stage.waitingContext = context;
+            if (stage.concurrency == null || stage.holding.size() < stage.concurrency) {
+                unblock(name, stage, "Proceeding");
+            } else {
+                println(context, "Waiting for builds " + stage.holding);
+            }
+            save();
         }
-        stage.waitingBuild = build;
-        stage.waitingContext = context;
-        if (stage.concurrency == null || stage.holding.size() < stage.concurrency) {
-            stage.unblock("Proceeding");
-        } else {
-            println(context, "Waiting for builds " + stage.holding);
+
+        synchronized void exit(Run<?,?> r, String message) {
+            LOGGER.log(Level.FINE, "exit {0}: {1}", new Object[] {r, stagesByName});
+            if (release(r.number, message)) {
+                save();
+            }
         }
-        cleanUp(job, jobName);
-        save();
-    }
 
-    private static synchronized void exit(Run<?,?> r) {
-        load();
-        LOGGER.log(Level.FINE, "exit {0}: {1}", new Object[] {r, stagesByNameByJob});
-        Job<?,?> job = r.getParent();
-        String jobName = job.getFullName();
-        Map<String,Stage> stagesByName = stagesByNameByJob.get(jobName);
-        if (stagesByName == null) {
-            return;
+        /**
+         * Removes a build from the stage it holds, if any, letting the build waiting for that stage proceed.
+         * @return true if it was holding a stage
+         */
+        @GuardedBy("this")
+        private boolean release(int build, String message) {
+            String name = stageByBuild.remove(build);
+            if (name == null) {
+                return false;
+            }
+            Stage stage = stagesByName.get(name);
+            if (stage == null) {
+                return false;
+            }
+            stage.holding.remove(build); // XSTR-757: do not rely on return value of TreeSet.remove(Object)
+            if (stage.waitingContext != null) {
+                unblock(name, stage, message);
+            }
+            prune(name, stage, null);
+            return true;
         }
-        boolean modified = false;
-        for (Stage stage : stagesByName.values()) {
-            if (stage.holding.contains(r.number)) {
-                stage.holding.remove(r.number); // XSTR-757: do not rely on return value of TreeSet.remove(Object)
-                modified = true;
-                if (stage.waitingContext != null) {
-                    stage.unblock("Unblocked since " + r.getDisplayName() + " finished");
+
+        /**
+         * Drops a stage nobody is in any more.
+         * @param it if iterating over {@link #stagesByName}, the iterator to remove it with
+         */
+        @GuardedBy("this")
+        private void prune(String name, Stage stage, @CheckForNull Iterator<?> it) {
+            if (stage.holding.isEmpty() && stage.waitingContext == null) {
+                if (it != null) {
+                    it.remove();
+                } else {
+                    stagesByName.remove(name);
                 }
             }
         }
-        if (modified) {
-            cleanUp(job, jobName);
-            save();
+
+        /**
+         * Unblocks the build currently waiting.
+         * @param message a message to print to the log of the unblocked build
+         */
+        @GuardedBy("this")
+        private void unblock(String name, Stage stage, String message) {
+            assert Thread.holdsLock(this);
+            assert stage.waitingContext != null;
+            assert stage.waitingBuild != null;
+            assert !stage.holding.contains(stage.waitingBuild);
+            /* Not necessarily true, since a later build could reduce the concurrency of an existing stage; could perhaps adjust semantics to skip unblocking in this special case:
+            assert concurrency == null || holding.size() < concurrency;
+            */
+            stats(name).waitEnded(stage);
+            println(stage.waitingContext, message);
+            stage.waitingContext.onSuccess(null);
+            stage.holding.add(stage.waitingBuild);
+            stageByBuild.put(stage.waitingBuild, name);
+            stage.waitingContext = null;
+            stage.waitingBuild = null;
+        }
+
+        @GuardedBy("this")
+        private StageStatistics stats(String name) {
+            StageStatistics s = statistics.get(name);
+            if (s == null) {
+                s = new StageStatistics(name);
+                statistics.put(name, s);
+            }
+            return s;
+        }
+
+        synchronized List<StageStatistics> getStatistics() {
+            List<StageStatistics> result = new ArrayList<StageStatistics>();
+            for (StageStatistics s : statistics.values()) {
+                Stage stage = stagesByName.get(s.name);
+                result.add(s.snapshot(stage));
+            }
+            return result;
         }
     }
 
-    private static void cleanUp(Job<?,?> job, String jobName) {
-        Map<String,Stage> stagesByName = stagesByNameByJob.get(jobName);
-        assert stagesByName != null;
-        Iterator<Entry<String,Stage>> it = stagesByName.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<String,Stage> entry = it.next();
-            Set<Integer> holding = entry.getValue().holding;
-            Iterator<Integer> it2 = holding.iterator();
-            while (it2.hasNext()) {
-                Integer number = it2.next();
-                if (job.getBuildByNumber(number) == null) {
-                    // Deleted at some point but did not properly clean up from exit(…).
-                    LOGGER.log(WARNING, "Cleaning up apparently deleted {0}#{1}", new Object[] {jobName, number});
-                    it2.remove();
-                }
+    /**
+     * Statistics about one stage of a job, collected since Jenkins started.
+     */
+    public static final class StageStatistics {
+        private final String name;
+        private long waitCount;
+        private long totalWaitTime;
+        private int holding;
+        private boolean waiting;
+
+        StageStatistics(String name) {
+            this.name = name;
+        }
+
+        void waitEnded(Stage stage) {
+            waitCount++;
+            if (stage.waitingSince > 0) {
+                totalWaitTime += Math.max(0, System.currentTimeMillis() - stage.waitingSince);
+                stage.waitingSince = 0;
             }
-            if (holding.isEmpty()) {
-                assert entry.getValue().waitingContext == null : entry;
-                it.remove();
+        }
+
+        StageStatistics snapshot(@CheckForNull Stage stage) {
+            StageStatistics s = new StageStatistics(name);
+            s.waitCount = waitCount;
+            s.totalWaitTime = totalWaitTime;
+            if (stage != null) {
+                s.holding = stage.holding.size();
+                s.waiting = stage.waitingContext != null;
             }
+            return s;
+        }
+
+        public String getName() {
+            return name;
         }
-        if (stagesByName.isEmpty()) {
-            stagesByNameByJob.remove(jobName);
+
+        /** Number of builds which stopped waiting to enter this stage, whether they got in or were canceled. */
+        public long getWaitCount() {
+            return waitCount;
+        }
+
+        /** Total time in milliseconds builds spent waiting to enter this stage. */
+        public long getTotalWaitTime() {
+            return totalWaitTime;
+        }
+
+        /** Number of builds currently in this stage. */
+        public int getHoldingCount() {
+            return holding;
+        }
+
+        /** Whether a build is currently waiting to enter this stage. */
+        public boolean isWaiting() {
+            return waiting;
+        }
+
+        @Override public String toString() {
+            return "StageStatistics[" + name + ",waitCount=" + waitCount + ",totalWaitTime=" + totalWaitTime + ",holding=" + holding + ",waiting=" + waiting + "]";
         }
     }
 
+    /**
+     * Statistics about all the stages a job has used since Jenkins started.
+     */
+    public static List<StageStatistics> getStatistics(Job<?,?> job) {
+        JobStages stages = stagesByJob.get(job.getFullName());
+        return stages != null ? stages.getStatistics() : Collections.<StageStatistics>emptyList();
+    }
+
+    /**
+     * Number of builds across all jobs currently waiting to enter a stage.
+     */
+    public static int getWaitingCount() {
+        int count = 0;
+        for (JobStages stages : stagesByJob.values()) {
+            for (StageStatistics s : stages.getStatistics()) {
+                if (s.isWaiting()) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
     private static void println(StepContext context, String message) {
         try {
             context.get(TaskListener.class).getLogger().println(message);
@@ -270,27 +509,11 @@ public class StageStepExecution extends AbstractStepExecutionImpl {
         /** Number of the build corresponding to {@link #waitingContext}, if any. */
         @Nullable
         Integer waitingBuild;
+        /** When {@link #waitingBuild} started waiting, or 0. */
+        long waitingSince;
         @Override public String toString() {
             return "Stage[holding=" + holding + ",waitingBuild=" + waitingBuild + ",concurrency=" + concurrency + "]";
         }
-        /**
-         * Unblocks the build currently waiting.
-         * @param message a message to print to the log of the unblocked build
-         */
-        void unblock(String message) {
-            assert Thread.holdsLock(StageStepExecution.class);
-            assert waitingContext != null;
-            assert waitingBuild != null;
-            assert !holding.contains(waitingBuild);
-            /* Not necessarily true, since a later build could reduce the concurrency of an existing stage; could perhaps adjust semantics to skip unblocking in this special case:
-            assert concurrency == null || holding.size() < concurrency;
-            */
-            println(waitingContext, message);
-            waitingContext.onSuccess(null);
-            holding.add(waitingBuild);
-            waitingContext = null;
-            waitingBuild = null;
-        }
     }
 
     @Extension
@@ -298,6 +521,12 @@ public class StageStepExecution extends AbstractStepExecutionImpl {
         @Override public void onCompleted(Run<?,?> r, TaskListener listener) {
             exit(r);
         }
+        @Override public void onDeleted(Run<?,?> r) {
+            JobStages stages = forJob(r.getParent(), false);
+            if (stages != null) {
+                stages.exit(r, "Unblocked since " + r.getDisplayName() + " was deleted");
+            }
+        }
     }
 
     private static final long serialVersionUID = 1L;
@@ -0,0 +1,486 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.workflow.support.storage;
+
+import com.google.common.collect.ImmutableList;
+import hudson.model.Action;
+import hudson.model.Result;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.support.storage.SimpleXStreamFlowNodeStorage.Tag;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UTFDataFormatException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.CheckForNull;
+
+/**
+ * Compact binary encoding of node records, used by {@link SegmentedFlowNodeStorage} in place of XML
+ * for the core node types and for actions made of simple fields.
+ *
+ * <p>
+ * Node IDs (including parent references) are written as varints, the common classes as one-byte tags,
+ * and fields are read and written through {@link Field}s resolved once per class,
+ * which is far cheaper than going through XStream reflection and XML parsing.
+ * Only the classes listed in {@link #WELL_KNOWN} with fields of simple types are supported; a record involving anything else,
+ * such as an {@code ErrorAction} or an action from another plugin, is left to XStream in its entirety.
+ *
+ * <p>
+ * Each field is written with its name and kind, and matched up by name when read back,
+ * so that like XML, records stay readable after fields are added, removed or reordered:
+ * unknown fields are skipped, and missing ones keep their default value.
+ */
+final class BinaryFlowNodeCodec {
+    /**
+     * First byte of every binary record. XML records always start with {@code '<'}.
+     */
+    static final byte MAGIC = 1;
+
+    /**
+     * Format of records written by this class, following {@link #MAGIC}.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Classes with a reserved tag; the index is the tag, and 0 means a class name follows.
+     * Only append to this list.
+     */
+    private static final List<String> WELL_KNOWN = Arrays.asList(
+            null,
+            "org.jenkinsci.plugins.workflow.cps.nodes.StepAtomNode",
+            "org.jenkinsci.plugins.workflow.cps.nodes.StepStartNode",
+            "org.jenkinsci.plugins.workflow.cps.nodes.StepEndNode",
+            "org.jenkinsci.plugins.workflow.graph.FlowStartNode",
+            "org.jenkinsci.plugins.workflow.graph.FlowEndNode",
+            "org.jenkinsci.plugins.workflow.actions.LabelAction",
+            "org.jenkinsci.plugins.workflow.actions.TimingAction",
+            "org.jenkinsci.plugins.workflow.support.actions.LogActionImpl",
+            "org.jenkinsci.plugins.workflow.support.steps.StageStepExecution$StageActionImpl",
+            "org.jenkinsci.plugins.workflow.actions.BodyInvocationAction"
+    );
+
+    /**
+     * Node types we write in binary. Other (possibly plugin-defined) nodes may carry arbitrary state, so they stay in XML.
+     */
+    private static final List<String> NODE_TYPES = WELL_KNOWN.subList(1, 6);
+
+    private static final Map<Class<?>,Plan> PLANS = new ConcurrentHashMap<Class<?>,Plan>();
+
+    /**
+     * Marks a class that cannot be encoded.
+     */
+    private static final Plan UNSUPPORTED = new Plan(new Field[0], new byte[0]);
+
+    private static final Field FlowNode$id, FlowNode$parents;
+
+    static {
+        try {
+            FlowNode$id = FlowNode.class.getDeclaredField("id");
+            FlowNode$id.setAccessible(true);
+            FlowNode$parents = FlowNode.class.getDeclaredField("parents");
+            FlowNode$parents.setAccessible(true);
+        } catch (NoSuchFieldException e) {
+            throw new Error(e);
+        }
+    }
+
+    private BinaryFlowNodeCodec() {}
+
+    /**
+     * Encodes a record.
+     *
+     * @param storage notified of referenced nodes, so that they get stored as well
+     * @return null if this record needs to be written as XML
+     */
+    static @CheckForNull byte[] encode(Tag tag, SimpleXStreamFlowNodeStorage storage) throws IOException {
+        FlowNode n = tag.node;
+        if (!NODE_TYPES.contains(n.getClass().getName())) {
+            return null;
+        }
+        Plan nodePlan = plan(n.getClass(), FlowNode.class);
+        if (nodePlan == UNSUPPORTED) {
+            return null;
+        }
+        List<Action> actions = tag.actions();
+        Plan[] actionPlans = new Plan[actions.size()];
+        for (int i = 0; i < actionPlans.length; i++) {
+            if (WELL_KNOWN.indexOf(actions.get(i).getClass().getName()) <= 0) {
+                // we cannot know how other actions evolve, nor whether they rely on XStream features
+                return null;
+            }
+            actionPlans[i] = plan(actions.get(i).getClass(), Object.class);
+            if (actionPlans[i] == UNSUPPORTED) {
+                return null;
+            }
+        }
+
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(baos);
+            out.writeByte(MAGIC);
+            writeVarInt(out, VERSION);
+
+            writeClass(out, n.getClass());
+            writeId(out, n.getId());
+            List<FlowNode> parents = n.getParents();
+            writeVarInt(out, parents.size());
+            for (FlowNode p : parents) {
+                storage.referenced(p);
+                writeId(out, p.getId());
+            }
+            writeFields(out, nodePlan, n, storage);
+
+            writeVarInt(out, actions.size());
+            for (int i = 0; i < actionPlans.length; i++) {
+                writeClass(out, actions.get(i).getClass());
+                writeFields(out, actionPlans[i], actions.get(i), storage);
+            }
+            out.close();
+            return baos.toByteArray();
+        } catch (UTFDataFormatException e) {
+            // some string is too long for writeUTF, such as a huge label; XML has no such limit
+            return null;
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Decodes a record produced by {@link #encode}.
+     *
+     * @param storage used to resolve referenced nodes
+     */
+    static Tag decode(byte[] data, SimpleXStreamFlowNodeStorage storage) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readByte() != MAGIC) {
+            throw new IOException("not a binary record");
+        }
+        int version = readVarInt(in);
+        if (version != VERSION) {
+            throw new IOException("unsupported record version " + version);
+        }
+        try {
+            Class<?> type = readClass(in);
+            FlowNode n = (FlowNode) newInstance(type);
+            FlowNode$id.set(n, readId(in));
+            int size = readVarInt(in);
+            List<FlowNode> parents = new ArrayList<FlowNode>(size);
+            for (int i = 0; i < size; i++) {
+                parents.add(storage.resolve(readId(in)));
+            }
+            FlowNode$parents.set(n, ImmutableList.copyOf(parents));
+            readFields(in, plan(type, FlowNode.class), n, storage);
+
+            size = readVarInt(in);
+            List<Action> actions = new ArrayList<Action>(size);
+            for (int i = 0; i < size; i++) {
+                Class<?> actionType = readClass(in);
+                Action a = (Action) newInstance(actionType);
+                readFields(in, plan(actionType, Object.class), a, storage);
+                actions.add(a);
+            }
+            return new Tag(n, actions);
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Which fields of a class get written, and how.
+     */
+    private static final class Plan {
+        final Field[] fields;
+        final byte[] kinds;
+        /** index into {@link #fields} by name */
+        final Map<String,Integer> byName = new HashMap<String,Integer>();
+
+        Plan(Field[] fields, byte[] kinds) {
+            this.fields = fields;
+            this.kinds = kinds;
+            for (int i = 0; i < fields.length; i++) {
+                byName.put(fields[i].getName(), i);
+            }
+        }
+    }
+
+    private static final byte STRING = 0, LONG = 1, INT = 2, BOOLEAN = 3, RESULT = 4, NODE = 5;
+
+    /**
+     * Computes (or looks up) the plan of a class, covering fields declared below {@code stop}.
+     */
+    private static Plan plan(Class<?> type, Class<?> stop) {
+        Plan p = PLANS.get(type);
+        if (p != null) {
+            return p;
+        }
+        List<Field> fields = new ArrayList<Field>();
+        List<Byte> kinds = new ArrayList<Byte>();
+        Set<String> names = new HashSet<String>();
+        p = null;
+        for (Class<?> c = type; c != stop && c != null && p == null; c = c.getSuperclass()) {
+            if (hasReadResolve(c)) {
+                // XStream would call it, we would not
+                p = UNSUPPORTED;
+                break;
+            }
+            for (Field f : c.getDeclaredFields()) {
+                if ((f.getModifiers() & (Modifier.STATIC | Modifier.TRANSIENT)) != 0 || f.isSynthetic()) {
+                    continue;
+                }
+                Byte kind = kindOf(f.getType());
+                if (kind == null || !names.add(f.getName())) {
+                    // unsupported type, or a field hiding another of the same name
+                    p = UNSUPPORTED;
+                    break;
+                }
+                f.setAccessible(true);
+                fields.add(f);
+                kinds.add(kind);
+            }
+        }
+        if (p == null) {
+            byte[] k = new byte[kinds.size()];
+            for (int i = 0; i < k.length; i++) {
+                k[i] = kinds.get(i);
+            }
+            p = new Plan(fields.toArray(new Field[fields.size()]), k);
+        }
+        PLANS.put(type, p);
+        return p;
+    }
+
+    private static @CheckForNull Byte kindOf(Class<?> t) {
+        if (t == String.class)                      return STRING;
+        if (t == long.class)                        return LONG;
+        if (t == int.class)                         return INT;
+        if (t == boolean.class)                     return BOOLEAN;
+        if (t == Result.class)                      return RESULT;
+        if (FlowNode.class.isAssignableFrom(t))     return NODE;
+        // notably Throwable in ErrorAction, which only XStream round-trips reliably across versions
+        return null;
+    }
+
+    private static boolean hasReadResolve(Class<?> c) {
+        for (Method m : c.getDeclaredMethods()) {
+            if (m.getName().equals("readResolve") && m.getParameterTypes().length == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void writeFields(DataOutputStream out, Plan p, Object o, SimpleXStreamFlowNodeStorage storage) throws IOException, IllegalAccessException {
+        writeVarInt(out, p.fields.length);
+        for (int i = 0; i < p.fields.length; i++) {
+            out.writeByte(p.kinds[i]);
+            out.writeUTF(p.fields[i].getName());
+            Object v = p.fields[i].get(o);
+            switch (p.kinds[i]) {
+            case STRING:
+                writeNullableString(out, (String) v);
+                break;
+            case LONG:
+                out.writeLong((Long) v);
+                break;
+            case INT:
+                out.writeInt((Integer) v);
+                break;
+            case BOOLEAN:
+                out.writeBoolean((Boolean) v);
+                break;
+            case RESULT:
+                writeNullableString(out, v != null ? v.toString() : null);
+                break;
+            case NODE:
+                out.writeBoolean(v != null);
+                if (v != null) {
+                    storage.referenced((FlowNode) v);
+                    writeId(out, ((FlowNode) v).getId());
+                }
+                break;
+            default:
+                throw new AssertionError();
+            }
+        }
+    }
+
+    private static void readFields(DataInputStream in, Plan p, Object o, SimpleXStreamFlowNodeStorage storage) throws IOException, IllegalAccessException {
+        if (p == UNSUPPORTED) {
+            throw new IOException("cannot decode " + o.getClass());
+        }
+        int count = readVarInt(in);
+        for (int i = 0; i < count; i++) {
+            byte kind = in.readByte();
+            String name = in.readUTF();
+            Object v = readValue(in, kind, storage);
+            Integer index = p.byName.get(name);
+            if (index != null && p.kinds[index] == kind) {
+                p.fields[index].set(o, v);
+            }
+            // otherwise the field was since removed or changed type, so the value is dropped, as XStream would
+        }
+    }
+
+    private static @CheckForNull Object readValue(DataInputStream in, byte kind, SimpleXStreamFlowNodeStorage storage) throws IOException {
+        switch (kind) {
+        case STRING:
+            return readNullableString(in);
+        case LONG:
+            return in.readLong();
+        case INT:
+            return in.readInt();
+        case BOOLEAN:
+            return in.readBoolean();
+        case RESULT:
+            String r = readNullableString(in);
+            return r != null ? Result.fromString(r) : null;
+        case NODE:
+            return in.readBoolean() ? storage.resolve(readId(in)) : null;
+        default:
+            throw new IOException("unknown field kind " + kind);
+        }
+    }
+
+    private static Object newInstance(Class<?> type) {
+        return SimpleXStreamFlowNodeStorage.XSTREAM.getReflectionProvider().newInstance(type);
+    }
+
+    private static void writeClass(DataOutputStream out, Class<?> c) throws IOException {
+        int tag = WELL_KNOWN.indexOf(c.getName());
+        if (tag > 0) {
+            writeVarInt(out, tag);
+        } else {
+            writeVarInt(out, 0);
+            out.writeUTF(c.getName());
+        }
+    }
+
+    private static Class<?> readClass(DataInputStream in) throws IOException, ClassNotFoundException {
+        int tag = readVarInt(in);
+        String name = tag > 0 ? WELL_KNOWN.get(tag) : in.readUTF();
+        Class<?> c = CLASSES.get(name);
+        if (c == null) {
+            c = Class.forName(name, false, classLoader());
+            CLASSES.put(name, c);
+        }
+        return c;
+    }
+
+    private static final Map<String,Class<?>> CLASSES = new ConcurrentHashMap<String,Class<?>>();
+
+    private static ClassLoader classLoader() {
+        Jenkins j = Jenkins.getInstance();
+        return j != null ? j.getPluginManager().uberClassLoader : BinaryFlowNodeCodec.class.getClassLoader();
+    }
+
+    /**
+     * Node IDs are almost always small decimal numbers, in which case they are written as a varint of the value plus one.
+     * Anything else is written as 0 followed by the string.
+     */
+    private static void writeId(DataOutputStream out, String id) throws IOException {
+        int n = decimal(id);
+        if (n >= 0) {
+            writeVarInt(out, n + 1);
+        } else {
+            writeVarInt(out, 0);
+            out.writeUTF(id);
+        }
+    }
+
+    private static String readId(DataInputStream in) throws IOException {
+        int n = readVarInt(in);
+        return n > 0 ? String.valueOf(n - 1) : in.readUTF();
+    }
+
+    /**
+     * @return the value if the ID is a canonical decimal number that round-trips through {@link String#valueOf(int)}, else -1
+     */
+    private static int decimal(String id) {
+        int len = id.length();
+        if (len == 0 || len > 9 || (len > 1 && id.charAt(0) == '0')) {
+            return -1;
+        }
+        int n = 0;
+        for (int i = 0; i < len; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            n = n * 10 + (c - '0');
+        }
+        return n;
+    }
+
+    private static void writeNullableString(DataOutputStream out, @CheckForNull String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static @CheckForNull String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    static void writeVarInt(DataOutputStream out, int v) throws IOException {
+        while ((v & ~0x7F) != 0) {
+            out.writeByte((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    static int readVarInt(InputStream in) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("truncated varint");
+            }
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.workflow.support.storage;
+
+import hudson.model.Action;
+import jenkins.util.Timer;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * {@link FlowNodeStorage} that defers writes to another storage, so that a node which is stored
+ * and then gets a few actions added in quick succession is written only once.
+ *
+ * <p>
+ * Dirty nodes are kept in memory in the order they were first touched, which guarantees that
+ * parents get written before their children. They are written out by {@link #flush()}, which happens
+ * when too many nodes are pending, a short while after the first pending change,
+ * and whenever the owner needs the persisted state to be consistent, such as before the program state is saved.
+ */
+public class BufferedFlowNodeStorage extends FlowNodeStorage {
+    private final FlowNodeStorage delegate;
+
+    /**
+     * Nodes that have not been written yet, keyed by their ID.
+     */
+    @GuardedBy("this")
+    private final Map<String,Pending> pending = new LinkedHashMap<String,Pending>();
+
+    /**
+     * Whether a flush is scheduled on {@link Timer}.
+     */
+    @GuardedBy("this")
+    private boolean scheduled;
+
+    public BufferedFlowNodeStorage(FlowNodeStorage delegate) {
+        this.delegate = delegate;
+    }
+
+    public FlowNodeStorage getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public FlowNode getNode(String id) throws IOException {
+        synchronized (this) {
+            Pending p = pending.get(id);
+            if (p != null) {
+                return p.node;
+            }
+        }
+        return delegate.getNode(id);
+    }
+
+    @Override
+    public synchronized void storeNode(FlowNode n) throws IOException {
+        if (!pending.containsKey(n.getId())) {
+            pending.put(n.getId(), new Pending(n, null));
+            dirtied();
+        }
+    }
+
+    public List<Action> loadActions(FlowNode node) throws IOException {
+        synchronized (this) {
+            Pending p = pending.get(node.getId());
+            if (p != null && p.actions != null) {
+                return new ArrayList<Action>(p.actions);
+            }
+        }
+        return delegate.loadActions(node);
+    }
+
+    public synchronized void saveActions(FlowNode node, List<Action> actions) throws IOException {
+        Pending p = pending.get(node.getId());
+        if (p != null) {
+            p.actions = actions;
+        } else {
+            pending.put(node.getId(), new Pending(node, actions));
+            dirtied();
+        }
+    }
+
+    /**
+     * Writes out all the pending nodes.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        LOGGER.log(Level.FINE, "writing {0} pending nodes", pending.size());
+        for (Iterator<Pending> it = pending.values().iterator(); it.hasNext(); ) {
+            Pending p = it.next();
+            if (p.actions == null) {
+                delegate.storeNode(p.node);
+            } else {
+                delegate.saveActions(p.node, p.actions);
+            }
+            // leave the rest to be retried should this fail midway
+            it.remove();
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        flush();
+        delegate.finish();
+    }
+
+    @GuardedBy("this")
+    private void dirtied() throws IOException {
+        if (pending.size() >= MAX_PENDING) {
+            flush();
+        } else if (!scheduled) {
+            scheduled = true;
+            Timer.get().schedule(new Runnable() {
+                @Override public void run() {
+                    synchronized (BufferedFlowNodeStorage.this) {
+                        scheduled = false;
+                        try {
+                            flush();
+                        } catch (IOException e) {
+                            LOGGER.log(Level.WARNING, "failed to write pending flow nodes", e);
+                        }
+                    }
+                }
+            }, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static final class Pending {
+        final FlowNode node;
+        /** Null if only the node itself needs to be stored. */
+        @CheckForNull List<Action> actions;
+
+        Pending(FlowNode node, @CheckForNull List<Action> actions) {
+            this.node = node;
+            this.actions = actions;
+        }
+    }
+
+    /**
+     * Number of pending nodes that triggers an immediate {@link #flush()}.
+     */
+    private static final int MAX_PENDING = 100;
+
+    /**
+     * How long a change may stay in memory before being written, in milliseconds.
+     */
+    private static final long FLUSH_DELAY = 5000;
+
+    private static final Logger LOGGER = Logger.getLogger(BufferedFlowNodeStorage.class.getName());
+}
@@ -0,0 +1,197 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.workflow.support.storage;
+
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.support.storage.SimpleXStreamFlowNodeStorage.Tag;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Size-bounded cache of loaded {@link FlowNode}s and their actions, used by {@link SimpleXStreamFlowNodeStorage}.
+ *
+ * <p>
+ * The most recently used nodes are held strongly, up to {@link #getCapacity()} entries; the rest are evicted
+ * one by one rather than all at once under memory pressure.
+ * In addition, every node that went through the cache is tracked weakly. As long as something else still holds on to
+ * a node, such as a current head or an open start node of a running execution, it is in effect pinned:
+ * lookups keep returning the very same instance even after it is evicted, without parsing it again.
+ */
+public final class FlowNodeCache {
+    private final int capacity;
+
+    @GuardedBy("this")
+    private final LinkedHashMap<String,Tag> entries;
+
+    @GuardedBy("this")
+    private final Map<String,LiveNode> live = new HashMap<String,LiveNode>();
+
+    private final ReferenceQueue<FlowNode> collected = new ReferenceQueue<FlowNode>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    FlowNodeCache(final int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<String,Tag>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String,Tag> eldest) {
+                if (size() > capacity) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    FlowNodeCache() {
+        this(CAPACITY);
+    }
+
+    /**
+     * Looks up a node together with its actions.
+     */
+    synchronized @CheckForNull Tag get(String id) {
+        Tag t = entries.get(id);
+        if (t != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return t;
+    }
+
+    /**
+     * Looks up a node that is still in memory, whether or not its actions are cached.
+     */
+    synchronized @CheckForNull FlowNode getLive(String id) {
+        Tag t = entries.get(id);
+        if (t != null) {
+            hits.incrementAndGet();
+            return t.node;
+        }
+        FlowNode n = peekLive(id);
+        if (n != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return n;
+    }
+
+    /**
+     * Like {@link #getLive} but without touching the statistics, for use after {@link #get} already missed.
+     */
+    synchronized @CheckForNull FlowNode peekLive(String id) {
+        expunge();
+        LiveNode r = live.get(id);
+        return r != null ? r.get() : null;
+    }
+
+    synchronized void put(String id, Tag t) {
+        entries.put(id, t);
+        remember(t.node);
+    }
+
+    /**
+     * Tracks a node without caching its actions, for example one that was just created.
+     */
+    synchronized void remember(FlowNode n) {
+        expunge();
+        LiveNode r = live.get(n.getId());
+        if (r == null || r.get() != n) {
+            live.put(n.getId(), new LiveNode(n, collected));
+        }
+    }
+
+    @GuardedBy("this")
+    private void expunge() {
+        Reference<? extends FlowNode> r;
+        while ((r = collected.poll()) != null) {
+            LiveNode l = (LiveNode) r;
+            if (live.get(l.id) == l) {
+                live.remove(l.id);
+            }
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Number of nodes whose actions are currently cached.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Number of nodes still in memory that can be resolved without parsing them again.
+     */
+    public synchronized int getLiveCount() {
+        expunge();
+        return live.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override public String toString() {
+        return "FlowNodeCache[size=" + size() + "/" + capacity + ",hits=" + hits + ",misses=" + misses + ",evictions=" + evictions + "]";
+    }
+
+    private static final class LiveNode extends WeakReference<FlowNode> {
+        final String id;
+
+        LiveNode(FlowNode n, ReferenceQueue<FlowNode> q) {
+            super(n, q);
+            this.id = n.getId();
+        }
+    }
+
+    /**
+     * Maximum number of nodes per execution whose actions are held in memory.
+     */
+    private static final int CAPACITY = Integer.getInteger(FlowNodeCache.class.getName() + ".capacity", 10000);
+}
@@ -50,4 +50,18 @@ public abstract class FlowNodeStorage implements FlowActionStorage {
      */
     public abstract @CheckForNull FlowNode getNode(String id) throws IOException;
     public abstract void storeNode(FlowNode n) throws IOException;
+
+    /**
+     * Makes sure everything passed to {@link #storeNode} and {@link #saveActions} so far is actually persisted.
+     * Called at points where the owner needs the persisted graph to be consistent with its own state.
+     */
+    public void flush() throws IOException {}
+
+    /**
+     * Called when the owning {@link FlowExecution} has completed and the graph will no longer grow.
+     *
+     * Nodes may still be read afterward, and actions may still be saved.
+     * Implementations can use this opportunity to compact what they have persisted.
+     */
+    public void finish() throws IOException {}
 }
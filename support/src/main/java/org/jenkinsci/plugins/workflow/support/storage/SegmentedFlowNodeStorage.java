@@ -0,0 +1,385 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.workflow.support.storage;
+
+import com.thoughtworks.xstream.XStreamException;
+import hudson.Util;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * {@link FlowNodeStorage} that appends node records to a small number of segment files,
+ * instead of creating one file per node.
+ *
+ * <p>
+ * Each record consists of the node ID, the record length, and the node with its actions,
+ * encoded by {@link BinaryFlowNodeCodec} where possible, or else as the same XML that
+ * {@link SimpleXStreamFlowNodeStorage} would have written into its own file.
+ * Saving actions of a node simply appends a newer record; the last one wins.
+ * An in-memory index from node ID to record location is rebuilt by scanning the segments
+ * the first time it is needed, and {@link #finish()} rewrites only the live records into a single segment.
+ *
+ * <p>
+ * Nodes that are not found in any segment are looked up as <tt>ID.xml</tt> files,
+ * so a directory written by {@link SimpleXStreamFlowNodeStorage} can still be read (and appended to).
+ * Compaction migrates those files, as well as XML records, into the binary format.
+ */
+public class SegmentedFlowNodeStorage extends SimpleXStreamFlowNodeStorage {
+    /**
+     * Location of the latest record of each node.
+     * Null until the segments are scanned.
+     */
+    @GuardedBy("this")
+    private transient Map<String,Location> index;
+
+    /**
+     * Number of the segment we are currently appending to.
+     */
+    @GuardedBy("this")
+    private transient int current;
+
+    public SegmentedFlowNodeStorage(FlowExecution exec, File dir) {
+        super(exec, dir);
+    }
+
+    /**
+     * Checks if the given storage directory was written by this storage.
+     */
+    public static boolean isSegmented(File dir) {
+        String[] names = dir.list();
+        if (names != null) {
+            for (String name : names) {
+                if (SEGMENT.matcher(name).matches())
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    /*package*/ boolean isStored(String id) {
+        try {
+            synchronized (this) {
+                if (index().containsKey(id))
+                    return true;
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to index " + getDir(), e);
+        }
+        return super.isStored(id);
+    }
+
+    @Override
+    /*package*/ Tag readTag(String id) throws IOException {
+        Location loc;
+        byte[] data;
+        synchronized (this) { // compaction may be deleting segments
+            loc = index().get(id);
+            if (loc == null) {
+                return super.readTag(id); // legacy per-node file
+            }
+            data = read(loc);
+        }
+        // deserialize outside the lock; this may recursively load referenced nodes
+        if (data.length > 0 && data[0] == BinaryFlowNodeCodec.MAGIC) {
+            return BinaryFlowNodeCodec.decode(data, this);
+        }
+        try {
+            return (Tag) XSTREAM.fromXML(new InputStreamReader(new ByteArrayInputStream(data), "UTF-8"));
+        } catch (XStreamException e) {
+            throw new IOException("Unable to read record of node " + id + " from " + getSegmentFile(loc.segment), e);
+        }
+    }
+
+    @Override
+    /*package*/ void writeTag(String id, Tag tag) throws IOException {
+        // serialize outside the lock; this may recursively store referenced nodes
+        byte[] data = BinaryFlowNodeCodec.encode(tag, this);
+        if (data == null) {
+            data = toXml(tag);
+        }
+        synchronized (this) {
+            index();
+            getDir().mkdirs();
+            File f = getSegmentFile(current);
+            if (f.length() >= SEGMENT_SIZE) {
+                f = getSegmentFile(++current);
+            }
+            index.put(id, append(f, current, id, data));
+        }
+    }
+
+    /**
+     * Rewrites the latest record of every node into a single new segment and deletes older segments
+     * as well as legacy per-node files.
+     */
+    @Override
+    public synchronized void finish() throws IOException {
+        if (index().isEmpty()) {
+            return;
+        }
+        int last = current;
+        int target = last + 1;
+        File tmp = new File(getDir(), SEGMENT_PREFIX + target + SEGMENT_SUFFIX + ".tmp");
+        Map<String,Location> compacted = new HashMap<String,Location>();
+        List<File> migrated = new ArrayList<File>();
+
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+        try {
+            long offset = 0;
+            // sort by node ID so that nodes which are looked up together stay close to each other
+            for (Map.Entry<String,Location> e : new TreeMap<String,Location>(index).entrySet()) {
+                byte[] data = read(e.getValue());
+                if (data.length > 0 && data[0] != BinaryFlowNodeCodec.MAGIC) {
+                    data = migrate(e.getKey(), data);
+                }
+                compacted.put(e.getKey(), writeRecord(out, target, offset, e.getKey(), data));
+                offset = out.size();
+            }
+            String[] names = getDir().list();
+            if (names != null) {
+                for (String name : names) {
+                    if (!name.endsWith(".xml")) {
+                        continue;
+                    }
+                    String id = name.substring(0, name.length() - 4);
+                    if (!compacted.containsKey(id)) {
+                        byte[] data = migrate(id, null);
+                        if (data == null) {
+                            continue; // leave it be
+                        }
+                        compacted.put(id, writeRecord(out, target, offset, id, data));
+                        offset = out.size();
+                    }
+                    migrated.add(new File(getDir(), name));
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        File f = getSegmentFile(target);
+        if (!tmp.renameTo(f)) {
+            Util.deleteFile(tmp);
+            throw new IOException("rename " + tmp + " to " + f + " failed");
+        }
+        // anything left behind by a failure from here on gets overridden by the newer segment on the next scan
+        index = compacted;
+        current = target;
+        for (int i = 0; i <= last; i++) {
+            File old = getSegmentFile(i);
+            if (old.exists()) {
+                Util.deleteFile(old);
+            }
+        }
+        for (File old : migrated) {
+            Util.deleteFile(old);
+        }
+    }
+
+    /**
+     * Re-encodes the record of a node in binary if possible.
+     *
+     * @param data the existing XML record, or null if the node lives in a legacy file
+     * @return the new record, or {@code data} if it cannot be migrated
+     */
+    @GuardedBy("this")
+    private @CheckForNull byte[] migrate(String id, @CheckForNull byte[] data) {
+        try {
+            Tag t = loadTag(id);
+            byte[] b = BinaryFlowNodeCodec.encode(t, this);
+            if (b != null) {
+                return b;
+            }
+            return data != null ? data : toXml(t);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to migrate node " + id + " in " + getDir(), e);
+            return data;
+        }
+    }
+
+    private byte[] read(Location loc) throws IOException {
+        byte[] data = new byte[loc.length];
+        RandomAccessFile raf = new RandomAccessFile(getSegmentFile(loc.segment), "r");
+        try {
+            raf.seek(loc.offset);
+            raf.readFully(data);
+        } finally {
+            raf.close();
+        }
+        return data;
+    }
+
+    private File getSegmentFile(int n) {
+        return new File(getDir(), SEGMENT_PREFIX + n + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Gets the index, scanning segments if necessary.
+     */
+    @GuardedBy("this")
+    private Map<String,Location> index() throws IOException {
+        if (index == null) {
+            Map<String,Location> m = new HashMap<String,Location>();
+            int max = 0;
+            String[] names = getDir().list();
+            if (names != null) {
+                TreeMap<Integer,File> segments = new TreeMap<Integer,File>();
+                for (String name : names) {
+                    Matcher matcher = SEGMENT.matcher(name);
+                    if (matcher.matches()) {
+                        segments.put(Integer.parseInt(matcher.group(1)), new File(getDir(), name));
+                    } else if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(".tmp")) {
+                        // leftover from an interrupted compaction
+                        Util.deleteFile(new File(getDir(), name));
+                    }
+                }
+                // later segments override earlier ones
+                for (Map.Entry<Integer,File> e : segments.entrySet()) {
+                    scan(e.getKey(), e.getValue(), m);
+                    max = e.getKey();
+                }
+            }
+            index = m;
+            current = max;
+        }
+        return index;
+    }
+
+    /**
+     * Reads all the records in one segment into the index.
+     * A partially written record at the end, as would be left by a crash, is truncated away.
+     */
+    private void scan(int segment, File f, Map<String,Location> m) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            long end = raf.length();
+            long pos = 0;
+            while (pos < end) {
+                String id;
+                int length;
+                long start;
+                try {
+                    raf.seek(pos);
+                    id = raf.readUTF();
+                    length = raf.readInt();
+                    start = raf.getFilePointer();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length < 0 || start + length > end) {
+                    break;
+                }
+                m.put(id, new Location(segment, start, length));
+                pos = start + length;
+            }
+            if (pos < end) {
+                LOGGER.log(Level.WARNING, "Discarding {0} bytes of incomplete record at the end of {1}", new Object[] {end - pos, f});
+                raf.setLength(pos);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static Location append(File f, int segment, String id, byte[] data) throws IOException {
+        long offset = f.length();
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(f, true));
+        try {
+            return writeRecord(out, segment, offset, id, data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static Location writeRecord(DataOutputStream out, int segment, long offset, String id, byte[] data) throws IOException {
+        int before = out.size();
+        out.writeUTF(id);
+        out.writeInt(data.length);
+        long start = offset + (out.size() - before);
+        out.write(data);
+        return new Location(segment, start, data.length);
+    }
+
+    private static byte[] toXml(Tag tag) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Writer w = new OutputStreamWriter(baos, "UTF-8");
+        try {
+            XSTREAM.toXML(tag, w);
+        } catch (XStreamException e) {
+            throw new IOException("Failed to serialize " + tag.node, e);
+        }
+        w.close();
+        return baos.toByteArray();
+    }
+
+    /**
+     * Where the latest record of a node lives.
+     */
+    private static final class Location {
+        final int segment;
+        final long offset;
+        final int length;
+
+        Location(int segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static final String SEGMENT_PREFIX = "nodes-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final Pattern SEGMENT = Pattern.compile("nodes-(\\d+)\\.seg");
+
+    /**
+     * Once the current segment grows beyond this many bytes, we start a new one.
+     */
+    private static final long SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    private static final Logger LOGGER = Logger.getLogger(SegmentedFlowNodeStorage.class.getName());
+}
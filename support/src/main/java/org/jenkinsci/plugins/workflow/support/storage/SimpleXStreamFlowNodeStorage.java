@@ -42,15 +42,12 @@ import hudson.util.XStream2;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.ref.SoftReference;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
@@ -63,7 +60,9 @@ public class SimpleXStreamFlowNodeStorage extends FlowNodeStorage {
     private final File dir;
     private final FlowExecution exec;
 
-    private transient SoftReference<PersistenceContext> context;
+    private final FlowNodeCache cache = new FlowNodeCache();
+
+    private final PersistenceContext context = new PersistenceContext();
 
     public SimpleXStreamFlowNodeStorage(FlowExecution exec, File dir) {
         this.exec = exec;
@@ -71,18 +70,22 @@ public class SimpleXStreamFlowNodeStorage extends FlowNodeStorage {
     }
 
     private PersistenceContext get() {
-        PersistenceContext c=null;
-        if (context!=null)
-            c = context.get();
-        if (c!=null)
-            return c;
+        return context;
+    }
 
-        context = new SoftReference<PersistenceContext>(c=new PersistenceContext());
-        return c;
+    /**
+     * Cache of nodes loaded from, or stored into, this storage.
+     */
+    public FlowNodeCache getCache() {
+        return cache;
     }
 
     @Override
     public FlowNode getNode(String id) throws IOException {
+        FlowNode n = cache.getLive(id);
+        if (n != null) {
+            return n;
+        }
         // TODO according to Javadoc this should return null if !getNodeFile(id).isFile()
         return get().loadOuter(id).node;
     }
@@ -96,8 +99,62 @@ public class SimpleXStreamFlowNodeStorage extends FlowNodeStorage {
         return new XmlFile(XSTREAM, new File(dir,id+".xml"));
     }
 
+    /**
+     * Directory this storage keeps its records in.
+     */
+    /*package*/ File getDir() {
+        return dir;
+    }
+
+    /**
+     * Checks if a record for the given node has been persisted.
+     */
+    /*package*/ boolean isStored(String id) {
+        return getNodeFile(id).exists();
+    }
+
+    /**
+     * Reads back the persisted record of the given node.
+     * Called within a {@link PersistenceContext}, so that references to other nodes get resolved.
+     */
+    /*package*/ Tag readTag(String id) throws IOException {
+        return (Tag)getNodeFile(id).read();
+    }
+
+    /**
+     * Persists the record of the given node, replacing any earlier one.
+     * Called within a {@link PersistenceContext}, so that referenced nodes get persisted as well.
+     */
+    /*package*/ void writeTag(String id, Tag tag) throws IOException {
+        getNodeFile(id).write(tag);
+    }
+
+    /**
+     * Loads a node together with its actions.
+     */
+    /*package*/ Tag loadTag(String id) throws IOException {
+        return get().loadOuter(id);
+    }
+
+    /**
+     * Resolves a reference to another node from within {@link #readTag}.
+     */
+    /*package*/ FlowNode resolve(String id) throws IOException {
+        return get().loadInner(id).node;
+    }
+
+    /**
+     * Notes a reference to another node from within {@link #writeTag}, so that it gets stored as well.
+     */
+    /*package*/ void referenced(FlowNode n) {
+        PersistenceContext c = CONTEXT.get();
+        if (c != null) {
+            c.queue.add(n);
+        }
+    }
+
     public List<Action> loadActions(FlowNode node) throws IOException {
-        if (!getNodeFile(node.getId()).exists())
+        if (!isStored(node.getId()))
             return new ArrayList<Action>(); // not yet saved
         return get().loadOuter(node.getId()).actions();
     }
@@ -106,8 +163,9 @@ public class SimpleXStreamFlowNodeStorage extends FlowNodeStorage {
      * Just stores this one node
      */
     public void saveActions(FlowNode node, List<Action> actions) throws IOException {
-        get().references.put(node.getId(),new Tag(node,actions));
-        getNodeFile(node.getId()).write(new Tag(node,actions));
+        Tag t = new Tag(node, actions);
+        cache.put(node.getId(), t);
+        writeTag(node.getId(), t);
     }
 
     /**
@@ -163,11 +221,11 @@ public class SimpleXStreamFlowNodeStorage extends FlowNodeStorage {
     /**
      * To group node and their actions together into one object.
      */
-    private static class Tag {
+    /*package*/ static class Tag {
         final @Nonnull FlowNode node;
         private final @CheckForNull Action[] actions;
 
-        private Tag(@Nonnull FlowNode node, @Nonnull List<Action> actions) {
+        /*package*/ Tag(@Nonnull FlowNode node, @Nonnull List<Action> actions) {
             this.node = node;
             this.actions = actions.isEmpty() ? null : actions.toArray(new Action[actions.size()]);
         }
@@ -183,9 +241,6 @@ public class SimpleXStreamFlowNodeStorage extends FlowNodeStorage {
      * Likewise, as we read nodes, we need to remember its ID/FlowNode mapping to fix up all the references.
      */
     private class PersistenceContext {
-        // used while reading
-        private final Map<String,Tag> references = new HashMap<String, Tag>();
-
         // used while writing
         private final List<FlowNode> queue = new LinkedList<FlowNode>();
 
@@ -193,12 +248,12 @@ public class SimpleXStreamFlowNodeStorage extends FlowNodeStorage {
             PersistenceContext old = CONTEXT.get();
             CONTEXT.set(this);
             try {
+                cache.remember(n);
                 queue.add(n);
                 while (!queue.isEmpty()) {
                     n = queue.remove(0);
-                    XmlFile f = getNodeFile(n.getId());
-                    if (!f.exists()) {
-                        f.write(new Tag(n, Collections.<Action>emptyList()));
+                    if (!isStored(n.getId())) {
+                        writeTag(n.getId(), new Tag(n, Collections.<Action>emptyList()));
                     }
                 }
             } finally {
@@ -217,19 +272,25 @@ public class SimpleXStreamFlowNodeStorage extends FlowNodeStorage {
         }
 
         private Tag loadInner(String id) throws IOException {
-            Tag v = references.get(id);
+            Tag v = cache.get(id);
             if (v!=null)    return v;   // already loaded?
 
             // else load it now
-            v = (Tag)getNodeFile(id).read();
-            try {
-                FlowNode$exec.set(v.node,exec);
-            } catch (IllegalAccessException e) {
-                throw (IllegalAccessError)new IllegalAccessError("Failed to set owner").initCause(e);
+            v = readTag(id);
+            FlowNode live = cache.peekLive(id);
+            if (live != null) {
+                // evicted but still in use; keep handing out the same instance
+                v = new Tag(live, v.actions());
+            } else {
+                try {
+                    FlowNode$exec.set(v.node,exec);
+                } catch (IllegalAccessException e) {
+                    throw (IllegalAccessError)new IllegalAccessError("Failed to set owner").initCause(e);
+                }
             }
             for (FlowNodeAction a : Util.filter(v.actions(), FlowNodeAction.class))
                 a.onLoad(v.node);
-            references.put(id,v);
+            cache.put(id,v);
 
             return v;
         }
@@ -43,6 +43,21 @@ public class FlowGraphTable {
         return columns;
     }
 
+    /**
+     * Checks whether the graph has changed since {@link #build}.
+     * Every new node becomes a head, so it suffices to compare the heads.
+     * A table of a completed execution thus stays up to date and may be kept.
+     */
+    public boolean isUpToDate() {
+        if (rows == null) {
+            return false;
+        }
+        if (execution == null) {
+            return true;
+        }
+        return heads.equals(execution.getCurrentHeads());
+    }
+
     /**
      * Builds the tabular view of a flow node graph.
      *
@@ -65,7 +80,7 @@ public class FlowGraphTable {
      * Creates a {@link Row} for each reachable {@link FlowNode}
      */
     private Map<FlowNode, Row> createAllRows() {
-        heads = execution.getCurrentHeads();
+        heads = new ArrayList<FlowNode>(execution.getCurrentHeads());
         FlowGraphWalker walker = new FlowGraphWalker();
         walker.addHeads(heads);
 
@@ -220,10 +235,14 @@ public class FlowGraphTable {
         // reverse edges of node.parents, which forms DAG
         private Row firstGraphChild;
         private Row nextGraphSibling;
+        /** some row at or after this one in its chain of graph siblings, last known to be the end of the chain */
+        private Row lastGraphSibling;
 
         // tree view
         private Row firstTreeChild;
         private Row nextTreeSibling;
+        /** like {@link #lastGraphSibling} for tree siblings */
+        private Row lastTreeSibling;
 
         private int treeDepth = -1;
 
@@ -259,11 +278,18 @@ public class FlowGraphTable {
             }
         }
 
+        /**
+         * Appends to the end of the sibling chain.
+         * Rather than walking the chain from here each time, which would make building a wide or long graph quadratic,
+         * starts from the last known end, so repeated appends through the same row take constant time.
+         */
         void addGraphSibling(Row r) {
-            Row s = this;
+            Row s = lastGraphSibling != null ? lastGraphSibling : this;
             while (s.nextGraphSibling !=null)
-                s = s.nextGraphSibling;
+                s = s.lastGraphSibling != null && s.lastGraphSibling != s ? s.lastGraphSibling : s.nextGraphSibling;
             s.nextGraphSibling = r;
+            s.lastGraphSibling = r;
+            lastGraphSibling = r;
         }
 
         void addTreeChild(Row r) {
@@ -279,10 +305,12 @@ public class FlowGraphTable {
         void addTreeSibling(Row r) {
             if (r.isEnd())  return;
 
-            Row s = this;
+            Row s = lastTreeSibling != null ? lastTreeSibling : this;
             while (s.nextTreeSibling !=null)
-                s = s.nextTreeSibling;
+                s = s.lastTreeSibling != null && s.lastTreeSibling != s ? s.lastTreeSibling : s.nextTreeSibling;
             s.nextTreeSibling = r;
+            s.lastTreeSibling = r;
+            lastTreeSibling = r;
         }
     }
 }
@@ -0,0 +1,65 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.workflow.support;
+
+import hudson.EnvVars;
+import java.util.Collections;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LayeredEnvironmentTest {
+
+    @Test public void layers() {
+        LayeredEnvironment base = LayeredEnvironment.of(new EnvVars("PATH", "/bin", "HOME", "/root"));
+        LayeredEnvironment top = base.with("home", "/tmp").with("FOO", "bar");
+        assertEquals("/tmp", top.get("HOME"));
+        assertEquals("/bin", top.get("PATH"));
+        assertEquals("bar", top.get("foo"));
+        assertNull(top.get("NONE"));
+        assertEquals("/root", base.get("HOME"));
+        assertNull(base.get("FOO"));
+        assertSame(top, top.with(Collections.<String,String>emptyMap()));
+
+        EnvVars flat = top.toEnvVars();
+        assertEquals("/tmp", flat.get("HOME"));
+        assertEquals(3, flat.size());
+        flat.put("FOO", "changed");
+        assertEquals("bar", top.get("FOO"));
+        assertEquals("bar", top.toEnvVars().get("FOO"));
+    }
+
+    @Test public void collapse() {
+        LayeredEnvironment e = LayeredEnvironment.of(new EnvVars("BASE", "x"));
+        for (int i = 0; i < LayeredEnvironment.MAX_DEPTH * 10; i++) {
+            e = e.with("V" + (i % 5), String.valueOf(i));
+        }
+        assertEquals("x", e.get("BASE"));
+        assertEquals(String.valueOf(LayeredEnvironment.MAX_DEPTH * 10 - 1), e.get("V4"));
+        assertEquals(String.valueOf(LayeredEnvironment.MAX_DEPTH * 10 - 5), e.get("V0"));
+        assertEquals(6, e.toEnvVars().size());
+    }
+
+}
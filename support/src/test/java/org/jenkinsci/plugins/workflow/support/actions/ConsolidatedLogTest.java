@@ -0,0 +1,126 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.workflow.support.actions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.rules.TemporaryFolder;
+import org.kohsuke.stapler.framework.io.LargeText;
+
+public class ConsolidatedLogTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test public void interleavedWriters() throws Exception {
+        File log = tmp.newFile("log");
+        File index = tmp.newFile("log-index");
+        ConsolidatedLog l = ConsolidatedLog.open(log, index, false);
+        OutputStream main = l.writer(null);
+        OutputStream a = l.writer("3");
+        OutputStream b = l.writer("4");
+        main.write("Started\n".getBytes());
+        a.write("a1\n".getBytes());
+        a.write("a2\n".getBytes());
+        b.write("b1\n".getBytes());
+        a.write("a3\n".getBytes());
+        assertEquals("a1\na2\na3\n", read(l, "3"));
+        a.close();
+        b.close();
+        main.write("Finished\n".getBytes());
+        main.close();
+        assertEquals("Started\na1\na2\nb1\na3\nFinished\n", FileUtils.readFileToString(log));
+
+        l = ConsolidatedLog.load(log, index);
+        assertEquals("a1\na2\na3\n", read(l, "3"));
+        assertEquals("b1\n", read(l, "4"));
+        assertEquals("", read(l, "5"));
+    }
+
+    @Test public void resume() throws Exception {
+        File log = tmp.newFile("log");
+        File index = tmp.newFile("log-index");
+        ConsolidatedLog l = ConsolidatedLog.open(log, index, false);
+        l.writer("3").write("before\n".getBytes());
+        l.close();
+        l = ConsolidatedLog.open(log, index, true);
+        l.writer(null).write("Resuming build\n".getBytes());
+        l.writer("3").write("after\n".getBytes());
+        assertEquals("before\nafter\n", read(l, "3"));
+        l.close();
+        assertEquals("before\nafter\n", read(ConsolidatedLog.load(log, index), "3"));
+    }
+
+    @Test public void readFromOffset() throws Exception {
+        File log = tmp.newFile("log");
+        File index = tmp.newFile("log-index");
+        ConsolidatedLog l = ConsolidatedLog.open(log, index, false);
+        l.writer("3").write("a1\n".getBytes());
+        l.writer("4").write("b1\n".getBytes());
+        l.writer("3").write("a2\n".getBytes());
+        LargeText text = new LargeText(l.read("3"), false);
+        assertEquals(6, text.length());
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        // starts within the first range and carries on into the second
+        assertEquals(6, text.writeLogTo(1, baos));
+        assertEquals("1\na2\n", baos.toString());
+        l.writer("3").write("a3\n".getBytes());
+        baos.reset();
+        assertEquals(9, new LargeText(l.read("3"), false).writeLogTo(6, baos));
+        assertEquals("a3\n", baos.toString());
+        l.close();
+    }
+
+    @Test public void tornIndexEntry() throws Exception {
+        File log = tmp.newFile("log");
+        File index = tmp.newFile("log-index");
+        ConsolidatedLog l = ConsolidatedLog.open(log, index, false);
+        l.writer("3").write("before\n".getBytes());
+        l.close();
+        // as if the process had died while writing another entry
+        FileOutputStream out = new FileOutputStream(index, true);
+        out.write(new byte[] {0, 1, '4', 0, 0});
+        out.close();
+        l = ConsolidatedLog.open(log, index, true);
+        l.writer("4").write("other\n".getBytes());
+        l.writer("3").write("after\n".getBytes());
+        l.close();
+        l = ConsolidatedLog.load(log, index);
+        assertEquals("before\nafter\n", read(l, "3"));
+        assertEquals("other\n", read(l, "4"));
+    }
+
+    private static String read(ConsolidatedLog l, String id) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        l.read(id).writeTo(baos);
+        return baos.toString();
+    }
+
+}
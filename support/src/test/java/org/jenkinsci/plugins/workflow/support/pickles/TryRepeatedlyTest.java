@@ -0,0 +1,70 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.workflow.support.pickles;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TryRepeatedlyTest {
+
+    @Test public void retryNow() throws Exception {
+        final AtomicBoolean ready = new AtomicBoolean();
+        TryRepeatedly<String> t = new TryRepeatedly<String>(3600, 3600) {
+            @Override protected String tryResolve() {
+                return ready.get() ? "ok" : null;
+            }
+        };
+        assertFalse(t.isDone());
+        ready.set(true);
+        t.retryNow();
+        assertEquals("ok", t.get(10, TimeUnit.SECONDS));
+        t.retryNow(); // no-op once done
+    }
+
+    @Test public void retryAllAndCancel() throws Exception {
+        final AtomicBoolean ready = new AtomicBoolean();
+        TryRepeatedly<String> waiting = new TryRepeatedly<String>(3600, 3600) {
+            @Override protected String tryResolve() {
+                return ready.get() ? "ok" : null;
+            }
+        };
+        TryRepeatedly<String> cancelled = new TryRepeatedly<String>(3600, 3600) {
+            @Override protected String tryResolve() {
+                throw new AssertionError("cancelled");
+            }
+        };
+        int before = TryRepeatedly.getPendingCount();
+        assertTrue(cancelled.cancel(false));
+        assertEquals(before - 1, TryRepeatedly.getPendingCount());
+        ready.set(true);
+        TryRepeatedly.retryAll();
+        assertEquals("ok", waiting.get(10, TimeUnit.SECONDS));
+        assertTrue(cancelled.isCancelled());
+    }
+
+}
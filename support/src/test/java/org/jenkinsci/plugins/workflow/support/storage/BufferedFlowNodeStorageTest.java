@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.workflow.support.storage;
+
+import hudson.model.Action;
+import java.util.ArrayList;
+import java.util.List;
+import org.jenkinsci.plugins.workflow.actions.TimingAction;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.support.storage.SegmentedFlowNodeStorageTest.TestNode;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.mockito.InOrder;
+import static org.mockito.Mockito.*;
+
+public class BufferedFlowNodeStorageTest {
+
+    @Test public void coalescesWrites() throws Exception {
+        FlowExecution exec = mock(FlowExecution.class);
+        FlowNodeStorage delegate = mock(FlowNodeStorage.class);
+        BufferedFlowNodeStorage storage = new BufferedFlowNodeStorage(delegate);
+        FlowNode first = new TestNode(exec, "1");
+        FlowNode second = new TestNode(exec, "2", first);
+        List<Action> actions = new ArrayList<Action>();
+
+        storage.storeNode(first);
+        storage.storeNode(second);
+        actions.add(new TimingAction());
+        storage.saveActions(second, actions);
+        actions.add(new TimingAction());
+        storage.saveActions(second, actions);
+        assertSame(second, storage.getNode("2"));
+        assertEquals(2, storage.loadActions(second).size());
+        verifyZeroInteractions(delegate);
+
+        storage.flush();
+        InOrder inOrder = inOrder(delegate);
+        inOrder.verify(delegate).storeNode(first);
+        inOrder.verify(delegate).saveActions(second, actions);
+        verifyNoMoreInteractions(delegate);
+
+        storage.flush();
+        verifyNoMoreInteractions(delegate);
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.workflow.support.storage;
+
+import hudson.model.Action;
+import java.util.Collections;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.support.storage.SegmentedFlowNodeStorageTest.TestNode;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.mockito.Mockito;
+
+public class FlowNodeCacheTest {
+
+    @Test public void boundedWithLiveNodesStillResolvable() {
+        FlowExecution exec = Mockito.mock(FlowExecution.class);
+        FlowNodeCache cache = new FlowNodeCache(2);
+        FlowNode head = new TestNode(exec, "1");
+        cache.put("1", new SimpleXStreamFlowNodeStorage.Tag(head, Collections.<Action>emptyList()));
+        cache.put("2", new SimpleXStreamFlowNodeStorage.Tag(new TestNode(exec, "2"), Collections.<Action>emptyList()));
+        cache.put("3", new SimpleXStreamFlowNodeStorage.Tag(new TestNode(exec, "3"), Collections.<Action>emptyList()));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+
+        assertNull(cache.get("1"));
+        assertEquals(1, cache.getMissCount());
+        assertSame(head, cache.getLive("1"));
+        assertNotNull(cache.get("3"));
+        assertEquals(2, cache.getHitCount());
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.workflow.support.storage;
+
+import hudson.model.Action;
+import hudson.model.InvisibleAction;
+import hudson.model.Result;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.workflow.actions.LabelAction;
+import org.jenkinsci.plugins.workflow.actions.TimingAction;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.graph.AtomNode;
+import org.jenkinsci.plugins.workflow.graph.FlowEndNode;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.graph.FlowStartNode;
+import org.junit.Rule;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+public class SegmentedFlowNodeStorageTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test public void roundTripAndCompaction() throws Exception {
+        File dir = tmp.newFolder();
+        FlowExecution exec = Mockito.mock(FlowExecution.class);
+        SegmentedFlowNodeStorage storage = new SegmentedFlowNodeStorage(exec, dir);
+        FlowNode first = new TestNode(exec, "1");
+        FlowNode second = new TestNode(exec, "2", first);
+        storage.storeNode(second); // also stores the parent
+        storage.saveActions(second, Collections.<Action>singletonList(new TimingAction()));
+        assertTrue(SegmentedFlowNodeStorage.isSegmented(dir));
+        assertFalse(new File(dir, "2.xml").exists());
+
+        storage = new SegmentedFlowNodeStorage(exec, dir);
+        FlowNode loaded = storage.getNode("2");
+        assertEquals("2", loaded.getId());
+        assertEquals("1", loaded.getParents().get(0).getId());
+        assertEquals(1, storage.loadActions(loaded).size());
+
+        storage.finish();
+        assertEquals(1, dir.list().length);
+        storage = new SegmentedFlowNodeStorage(exec, dir);
+        assertEquals(1, storage.loadActions(storage.getNode("2")).size());
+        assertTrue(storage.loadActions(storage.getNode("1")).isEmpty());
+    }
+
+    @Test public void readsLegacyDirectory() throws Exception {
+        File dir = tmp.newFolder();
+        FlowExecution exec = Mockito.mock(FlowExecution.class);
+        new SimpleXStreamFlowNodeStorage(exec, dir).storeNode(new TestNode(exec, "1"));
+        assertFalse(SegmentedFlowNodeStorage.isSegmented(dir));
+
+        SegmentedFlowNodeStorage storage = new SegmentedFlowNodeStorage(exec, dir);
+        FlowNode legacy = storage.getNode("1");
+        assertEquals("1", legacy.getId());
+        storage.storeNode(new TestNode(exec, "2", legacy));
+        assertTrue(new File(dir, "1.xml").isFile());
+        assertFalse(new File(dir, "2.xml").exists());
+        assertEquals("1", new SegmentedFlowNodeStorage(exec, dir).getNode("2").getParents().get(0).getId());
+    }
+
+    @Test public void binaryRecords() throws Exception {
+        File dir = tmp.newFolder();
+        FlowExecution exec = Mockito.mock(FlowExecution.class);
+        SegmentedFlowNodeStorage storage = new SegmentedFlowNodeStorage(exec, dir);
+        FlowStartNode start = new FlowStartNode(exec, "2");
+        FlowNode end = new FlowEndNode(exec, "3", start, Result.UNSTABLE, start);
+        storage.storeNode(end);
+        TimingAction timing = new TimingAction();
+        storage.saveActions(end, Arrays.<Action>asList(new LabelAction("done"), timing));
+        byte[] segment = FileUtils.readFileToByteArray(new File(dir, "nodes-0.seg"));
+        assertEquals(BinaryFlowNodeCodec.MAGIC, segment[2 + "3".length() + 4]);
+
+        storage = new SegmentedFlowNodeStorage(exec, dir);
+        FlowEndNode loaded = (FlowEndNode) storage.getNode("3");
+        assertEquals(Result.UNSTABLE, loaded.getResult());
+        assertEquals("2", loaded.getStartNode().getId());
+        assertSame(loaded.getStartNode(), loaded.getParents().get(0));
+        List<Action> actions = storage.loadActions(loaded);
+        assertEquals("done", ((LabelAction) actions.get(0)).getDisplayName());
+        assertEquals(timing.getStartTime(), ((TimingAction) actions.get(1)).getStartTime());
+    }
+
+    @Test public void compactionMigratesLegacyFiles() throws Exception {
+        File dir = tmp.newFolder();
+        FlowExecution exec = Mockito.mock(FlowExecution.class);
+        new SimpleXStreamFlowNodeStorage(exec, dir).storeNode(new FlowStartNode(exec, "2"));
+        SegmentedFlowNodeStorage storage = new SegmentedFlowNodeStorage(exec, dir);
+        storage.storeNode(new FlowEndNode(exec, "3", (FlowStartNode) storage.getNode("2"), Result.SUCCESS, storage.getNode("2")));
+        storage.finish();
+        assertFalse(new File(dir, "2.xml").exists());
+        assertEquals("2", ((FlowEndNode) new SegmentedFlowNodeStorage(exec, dir).getNode("3")).getStartNode().getId());
+    }
+
+    @Test public void fieldsMatchedByName() throws Exception {
+        FlowExecution exec = Mockito.mock(FlowExecution.class);
+        SegmentedFlowNodeStorage storage = new SegmentedFlowNodeStorage(exec, tmp.newFolder());
+        // as if TimingAction had once had another field, written before startTime
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeByte(BinaryFlowNodeCodec.MAGIC);
+        BinaryFlowNodeCodec.writeVarInt(out, 1); // version
+        BinaryFlowNodeCodec.writeVarInt(out, 4); // FlowStartNode
+        BinaryFlowNodeCodec.writeVarInt(out, 3); // ID 2
+        BinaryFlowNodeCodec.writeVarInt(out, 0); // no parents
+        BinaryFlowNodeCodec.writeVarInt(out, 0); // no node fields
+        BinaryFlowNodeCodec.writeVarInt(out, 1); // one action
+        BinaryFlowNodeCodec.writeVarInt(out, 7); // TimingAction
+        BinaryFlowNodeCodec.writeVarInt(out, 2);
+        out.writeByte(0); // string
+        out.writeUTF("removedField");
+        out.writeBoolean(true);
+        out.writeUTF("whatever");
+        out.writeByte(1); // long
+        out.writeUTF("startTime");
+        out.writeLong(12345);
+        out.close();
+        SimpleXStreamFlowNodeStorage.Tag tag = BinaryFlowNodeCodec.decode(baos.toByteArray(), storage);
+        assertEquals("2", tag.node.getId());
+        assertEquals(12345, ((TimingAction) tag.actions().get(0)).getStartTime());
+    }
+
+    @Test public void xmlFallback() throws Exception {
+        File dir = tmp.newFolder();
+        FlowExecution exec = Mockito.mock(FlowExecution.class);
+        SegmentedFlowNodeStorage storage = new SegmentedFlowNodeStorage(exec, dir);
+        FlowStartNode start = new FlowStartNode(exec, "2");
+        // an action from elsewhere, whose fields may change in ways we cannot track
+        assertNull(BinaryFlowNodeCodec.encode(new SimpleXStreamFlowNodeStorage.Tag(start, Collections.<Action>singletonList(new OtherAction("x"))), storage));
+        // too long for writeUTF
+        String longName = StringUtils.repeat("x", 70000);
+        assertNull(BinaryFlowNodeCodec.encode(new SimpleXStreamFlowNodeStorage.Tag(start, Collections.<Action>singletonList(new LabelAction(longName))), storage));
+        storage.storeNode(start);
+        storage.saveActions(start, Collections.<Action>singletonList(new LabelAction(longName)));
+        storage = new SegmentedFlowNodeStorage(exec, dir);
+        assertEquals(longName, ((LabelAction) storage.loadActions(storage.getNode("2")).get(0)).getDisplayName());
+    }
+
+    public static final class OtherAction extends InvisibleAction {
+        private final String value;
+        public OtherAction(String value) {
+            this.value = value;
+        }
+    }
+
+    public static final class TestNode extends AtomNode {
+        public TestNode(FlowExecution exec, String id, FlowNode... parents) {
+            super(exec, id, parents);
+        }
+        @Override protected String getTypeDisplayName() {
+            return "test";
+        }
+    }
+
+}